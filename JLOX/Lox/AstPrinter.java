@@ -15,7 +15,7 @@ class AstPrinter implements Expr.Visitor<String> {
   @Override
   public String visitBinaryExpr(Expr.Binary expr) {
     // 'expr' is the binary class instance
-    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
   }
 
   @Override
@@ -32,7 +32,7 @@ class AstPrinter implements Expr.Visitor<String> {
 
   @Override
   public String visitUnaryExpr(Expr.Unary expr) {
-    return parenthesize(expr.operator.lexeme, expr.right);
+    return parenthesize(expr.operator.lexeme(), expr.right);
   }
 
   // Unlike literals, the other expressions have subexpressions, so they use this parenthesize() helper method
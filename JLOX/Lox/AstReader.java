@@ -0,0 +1,241 @@
+package JLOX.Lox;
+
+import static JLOX.Lox.AstWriter.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Reads back what AstWriter wrote, ready to run without going through the Resolver again.
+// Anything that doesn't look like what AstWriter writes is an IOException, so a damaged or
+// outdated cache file is only a cache miss. Nothing's read from the nodes until their checksum
+// matches: damage that happens to still parse would otherwise run as some other script
+class AstReader {
+  private static final TokenType[] tokenTypes = TokenType.values();
+
+  private final DataInputStream file;
+  // The nodes, once they've been checked
+  private DataInputStream in;
+  // Global variables get their slots from these, like the Resolver does
+  private final Environment globals;
+  private final List<String> strings = new ArrayList<>();
+  private int line = 1;
+
+  AstReader(InputStream in, Environment globals) {
+    this.file = new DataInputStream(in);
+    this.globals = globals;
+  }
+
+  List<Stmt> read() throws IOException {
+    if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+      throw new IOException("Not a cached script of this version.");
+    }
+
+    int length = file.readInt();
+    int expected = file.readInt();
+    if (length < 0) throw corrupt();
+    // Read as it comes rather than all allocated up front, in case the length is what's damaged
+    byte[] payload = file.readNBytes(length);
+    if (payload.length != length || file.read() != -1) throw corrupt();
+    CRC32 checksum = new CRC32();
+    checksum.update(payload);
+    if ((int)checksum.getValue() != expected) throw corrupt();
+
+    in = new DataInputStream(new ByteArrayInputStream(payload));
+    List<Stmt> statements = readStmts();
+    if (in.read() != -1) throw corrupt();
+    return statements;
+  }
+
+  private Stmt readStmt() throws IOException {
+    int tag = readInt();
+    switch (tag) {
+      case 0: return null;
+      case BLOCK: return new Stmt.Block(readStmts());
+      case CLASS: {
+        Token name = readToken();
+        Expr superclass = readExpr();
+        if (superclass != null && !(superclass instanceof Expr.Variable)) throw corrupt();
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (int count = readCount(); count > 0; count--) {
+          methods.add(readFunction());
+        }
+        Stmt.Class stmt = new Stmt.Class(name, (Expr.Variable)superclass, methods);
+        stmt.captured = readBoolean();
+        return stmt;
+      }
+      case EXPRESSION: return new Stmt.Expression(readExpr());
+      case FUNCTION: return readFunction();
+      case IF: return new Stmt.If(readExpr(), readStmt(), readStmt());
+      case PRINT: return new Stmt.Print(readExpr());
+      case RETURN: return new Stmt.Return(readToken(), readExpr());
+      case VAR: {
+        Stmt.Var stmt = new Stmt.Var(readToken(), readExpr());
+        stmt.captured = readBoolean();
+        return stmt;
+      }
+      case WHILE: return new Stmt.While(readExpr(), readStmt());
+    }
+    throw corrupt();
+  }
+
+  private Stmt.Function readFunction() throws IOException {
+    Token name = readToken();
+    List<Token> params = new ArrayList<>();
+    for (int count = readCount(); count > 0; count--) {
+      params.add(readToken());
+    }
+    Stmt.Function function = new Stmt.Function(name, params, readStmts());
+
+    function.captured = readBoolean();
+    function.capturedParams = new boolean[readCount()];
+    for (int i = 0; i < function.capturedParams.length; i++) {
+      function.capturedParams[i] = readBoolean();
+    }
+    function.upvalueDepths = readInts();
+    function.upvalueSlots = readInts();
+    return function;
+  }
+
+  private Expr readExpr() throws IOException {
+    int tag = readInt();
+    switch (tag) {
+      case 0: return null;
+      case ASSIGN: {
+        Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+        expr.depth = readInt();
+        expr.slot = readInt();
+        expr.upvalue = readInt();
+        expr.captured = readBoolean();
+        if (readBoolean()) expr.global = globals.global(expr.name.lexeme());
+        return expr;
+      }
+      case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+      case CALL: {
+        Expr callee = readExpr();
+        Token paren = readToken();
+        List<Expr> arguments = new ArrayList<>();
+        for (int count = readCount(); count > 0; count--) {
+          arguments.add(readExpr());
+        }
+        Expr.Call expr = new Expr.Call(callee, paren, arguments);
+        expr.tail = readBoolean();
+        return expr;
+      }
+      case GET: return new Expr.Get(readExpr(), readToken());
+      case GROUPING: return new Expr.Grouping(readExpr());
+      case LITERAL: return new Expr.Literal(readLiteral());
+      case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr());
+      case SET: return new Expr.Set(readExpr(), readToken(), readExpr());
+      case SUPER: {
+        Expr.Super expr = new Expr.Super(readToken(), readToken());
+        expr.upvalue = readInt();
+        Expr receiver = readExpr();
+        if (!(receiver instanceof Expr.This)) throw corrupt();
+        expr.receiver = (Expr.This)receiver;
+        return expr;
+      }
+      case THIS: {
+        Expr.This expr = new Expr.This(readToken());
+        expr.depth = readInt();
+        expr.slot = readInt();
+        expr.upvalue = readInt();
+        expr.captured = readBoolean();
+        return expr;
+      }
+      case UNARY: return new Expr.Unary(readToken(), readExpr());
+      case VARIABLE: {
+        Expr.Variable expr = new Expr.Variable(readToken());
+        expr.depth = readInt();
+        expr.slot = readInt();
+        expr.upvalue = readInt();
+        expr.captured = readBoolean();
+        if (readBoolean()) expr.global = globals.global(expr.name.lexeme());
+        return expr;
+      }
+    }
+    throw corrupt();
+  }
+
+  private Object readLiteral() throws IOException {
+    switch (readInt()) {
+      case NIL: return null;
+      case TRUE: return true;
+      case FALSE: return false;
+      case NUMBER: return in.readDouble();
+      case STRING: return readString();
+    }
+    throw corrupt();
+  }
+
+  // Helper Methods
+
+  private List<Stmt> readStmts() throws IOException {
+    List<Stmt> statements = new ArrayList<>();
+    for (int count = readCount(); count > 0; count--) {
+      statements.add(readStmt());
+    }
+    return statements;
+  }
+
+  private Token readToken() throws IOException {
+    int type = readInt();
+    if (type < 0 || type >= tokenTypes.length) throw corrupt();
+    String lexeme = readString();
+    line += readInt();
+    return new Token(tokenTypes[type], lexeme, null, line);
+  }
+
+  private int[] readInts() throws IOException {
+    int[] values = new int[readCount()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = readInt();
+    }
+    return values;
+  }
+
+  private String readString() throws IOException {
+    int index = readInt();
+    if (index > 0) {
+      if (index > strings.size()) throw corrupt();
+      return strings.get(index - 1);
+    }
+
+    byte[] bytes = new byte[readCount()];
+    in.readFully(bytes);
+    // Interned like the Scanner does, so they're the same Strings as the ones in scanned code
+    String string = new String(bytes, StandardCharsets.UTF_8).intern();
+    strings.add(string);
+    return string;
+  }
+
+  private boolean readBoolean() throws IOException {
+    return readInt() != 0;
+  }
+
+  private int readCount() throws IOException {
+    int count = readInt();
+    if (count < 0) throw corrupt();
+    return count;
+  }
+
+  private int readInt() throws IOException {
+    int bits = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      bits |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return (bits >>> 1) ^ -(bits & 1);
+    }
+    throw corrupt();
+  }
+
+  private static IOException corrupt() {
+    return new IOException("Corrupt cached script.");
+  }
+
+}
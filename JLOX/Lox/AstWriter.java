@@ -0,0 +1,370 @@
+package JLOX.Lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Writes a resolved and optimized script in the binary form ScriptCache keeps, AstReader reads it back.
+// A node is its tag followed by its fields in the order they're declared, including what the Resolver
+// filled in. Ints are zigzag varints, and each distinct string is written once, later uses refer back to it.
+// The nodes come after a header of the magic number, the version, and their length and CRC32, so a
+// file that's been cut short or damaged is never mistaken for a script
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  static final int MAGIC = 0x4C4F5843; // "LOXC"
+  // Bumped whenever the format changes, or what the nodes carry does
+  static final int VERSION = 2;
+
+  // Tags, 0 stands for null. Expressions and statements are never read in the same place, so they can overlap
+  static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, GROUPING = 5, LITERAL = 6,
+      LOGICAL = 7, SET = 8, SUPER = 9, THIS = 10, UNARY = 11, VARIABLE = 12;
+  static final int BLOCK = 1, CLASS = 2, EXPRESSION = 3, FUNCTION = 4, IF = 5, PRINT = 6,
+      RETURN = 7, VAR = 8, WHILE = 9;
+  // Literal values
+  static final int NIL = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4;
+
+  private final OutputStream file;
+  // The nodes, held back until their checksum is known
+  private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(payload);
+  private final Map<String, Integer> strings = new HashMap<>();
+  // Tokens' lines are written as the difference from the one before, which is mostly 0
+  private int line = 1;
+
+  AstWriter(OutputStream file) {
+    this.file = file;
+  }
+
+  void write(List<Stmt> statements) throws IOException {
+    try {
+      writeStmts(statements);
+    } catch (UncheckedIOException error) {
+      // The visitors can't throw it as it is
+      throw error.getCause();
+    }
+    out.flush();
+
+    CRC32 checksum = new CRC32();
+    checksum.update(payload.toByteArray());
+    DataOutputStream header = new DataOutputStream(file);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeInt(payload.size());
+    header.writeInt((int)checksum.getValue());
+    payload.writeTo(header);
+    header.flush();
+  }
+
+  // Statements
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    tag(BLOCK);
+    writeStmts(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    tag(CLASS);
+    writeToken(stmt.name);
+    writeExpr(stmt.superclass);
+    writeInt(stmt.methods.size());
+    for (Stmt.Function method : stmt.methods) {
+      writeFunction(method);
+    }
+    writeBoolean(stmt.captured);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    tag(EXPRESSION);
+    writeExpr(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    tag(FUNCTION);
+    writeFunction(stmt);
+    return null;
+  }
+
+  private void writeFunction(Stmt.Function function) {
+    writeToken(function.name);
+    writeInt(function.params.size());
+    for (Token param : function.params) {
+      writeToken(param);
+    }
+    writeStmts(function.body);
+
+    writeBoolean(function.captured);
+    writeInt(function.capturedParams.length);
+    for (boolean captured : function.capturedParams) {
+      writeBoolean(captured);
+    }
+    writeInts(function.upvalueDepths);
+    writeInts(function.upvalueSlots);
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    tag(IF);
+    writeExpr(stmt.condition);
+    writeStmt(stmt.thenBranch);
+    writeStmt(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    tag(PRINT);
+    writeExpr(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    tag(RETURN);
+    writeToken(stmt.keyword);
+    writeExpr(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    tag(VAR);
+    writeToken(stmt.name);
+    writeExpr(stmt.initializer);
+    writeBoolean(stmt.captured);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    tag(WHILE);
+    writeExpr(stmt.condition);
+    writeStmt(stmt.body);
+    return null;
+  }
+
+  // Expressions
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    tag(ASSIGN);
+    writeToken(expr.name);
+    writeExpr(expr.value);
+    writeVariable(expr.depth, expr.slot, expr.upvalue, expr.captured);
+    // Global slots belong to the Interpreter that resolved it, the reader asks its own for one
+    writeBoolean(expr.global >= 0);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    tag(BINARY);
+    writeExpr(expr.left);
+    writeToken(expr.operator);
+    writeExpr(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    tag(CALL);
+    writeExpr(expr.callee);
+    writeToken(expr.paren);
+    writeInt(expr.arguments.size());
+    for (Expr argument : expr.arguments) {
+      writeExpr(argument);
+    }
+    writeBoolean(expr.tail);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    tag(GET);
+    writeExpr(expr.object);
+    writeToken(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    tag(GROUPING);
+    writeExpr(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    tag(LITERAL);
+    Object value = expr.value;
+    if (value == null) {
+      writeInt(NIL);
+    } else if (value instanceof Boolean) {
+      writeInt((Boolean)value ? TRUE : FALSE);
+    } else if (value instanceof Double) {
+      writeInt(NUMBER);
+      try {
+        out.writeDouble((Double)value);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    } else {
+      writeInt(STRING);
+      writeString(value.toString());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    tag(LOGICAL);
+    writeExpr(expr.left);
+    writeToken(expr.operator);
+    writeExpr(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    tag(SET);
+    writeExpr(expr.object);
+    writeToken(expr.name);
+    writeExpr(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    tag(SUPER);
+    writeToken(expr.keyword);
+    writeToken(expr.method);
+    writeInt(expr.upvalue);
+    writeExpr(expr.receiver);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    tag(THIS);
+    writeToken(expr.keyword);
+    writeVariable(expr.depth, expr.slot, expr.upvalue, expr.captured);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    tag(UNARY);
+    writeToken(expr.operator);
+    writeExpr(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    tag(VARIABLE);
+    writeToken(expr.name);
+    writeVariable(expr.depth, expr.slot, expr.upvalue, expr.captured);
+    writeBoolean(expr.global >= 0);
+    return null;
+  }
+
+  // Helper Methods
+
+  private void writeStmts(List<Stmt> statements) {
+    writeInt(statements.size());
+    for (Stmt statement : statements) {
+      writeStmt(statement);
+    }
+  }
+
+  private void writeStmt(Stmt stmt) {
+    if (stmt == null) {
+      tag(0);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  private void writeExpr(Expr expr) {
+    if (expr == null) {
+      tag(0);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void writeVariable(int depth, int slot, int upvalue, boolean captured) {
+    writeInt(depth);
+    writeInt(slot);
+    writeInt(upvalue);
+    writeBoolean(captured);
+  }
+
+  private void writeToken(Token token) {
+    // The literal isn't needed, the Parser has already made it a Literal node
+    writeInt(token.type.ordinal());
+    writeString(token.lexeme());
+    writeInt(token.line - line);
+    line = token.line;
+  }
+
+  private void writeInts(int[] values) {
+    writeInt(values.length);
+    for (int value : values) {
+      writeInt(value);
+    }
+  }
+
+  private void writeString(String string) {
+    Integer index = strings.get(string);
+    if (index != null) {
+      writeInt(index + 1);
+      return;
+    }
+
+    strings.put(string, strings.size());
+    writeInt(0);
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    writeInt(bytes.length);
+    try {
+      out.write(bytes);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private void tag(int tag) {
+    writeInt(tag);
+  }
+
+  private void writeBoolean(boolean value) {
+    writeInt(value ? 1 : 0);
+  }
+
+  private void writeInt(int value) {
+    // Zigzag, so the -1s for "not resolved to one" take a byte too
+    int bits = (value << 1) ^ (value >> 31);
+    try {
+      while ((bits & ~0x7F) != 0) {
+        out.writeByte((bits & 0x7F) | 0x80);
+        bits >>>= 7;
+      }
+      out.writeByte(bits);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+}
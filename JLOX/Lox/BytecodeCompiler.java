@@ -0,0 +1,487 @@
+package JLOX.Lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles the resolved AST into bytecode for the VM. Locals live in their function's stack window,
+// numbered the same way the NodeInterpreter numbers its frame slots: each block's locals start right
+// after those its enclosing scope has declared so far, and are popped when the block ends
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private FunctionScope function;
+  // Line of the last token we saw, for instructions whose node has no token of its own
+  private int line = 1;
+
+  private static class Scope {
+    final int base;
+    int count = 0;
+
+    Scope(int base) {
+      this.base = base;
+    }
+  }
+
+  private static class FunctionScope {
+    final Chunk chunk = new Chunk();
+    final List<Scope> scopes = new ArrayList<>();
+  }
+
+  VMFunction.Prototype compile(List<Stmt> statements) {
+    // The script is compiled like a function body, the blocks at top level have locals too
+    function = new FunctionScope();
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+    emit(OpCode.NIL);
+    emit(OpCode.RETURN);
+    return new VMFunction.Prototype(null, function.chunk, false, new int[0], new boolean[0]);
+  }
+
+  // Statements
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    line = stmt.name.line;
+
+    // The class's own variable is declared before anything else, like the Resolver does
+    int slot = -1;
+    if (!isGlobalScope()) {
+      slot = declareLocal();
+      emit(OpCode.NIL);
+      // Methods that refer to the class by name capture this box
+      if (stmt.captured) emit(OpCode.BOX);
+    }
+
+    int superSlot = -1;
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+      emit(OpCode.CHECK_SUPERCLASS);
+
+      // 'super' gets a scope of its own, the methods capture it from there
+      beginScope();
+      superSlot = declareLocal();
+      emit(OpCode.BOX);
+    }
+
+    for (Stmt.Function method : stmt.methods) {
+      compileFunction(method, true, method.name.lexeme().equals("init"));
+    }
+
+    emit(OpCode.CLASS);
+    emitName(stmt.name);
+    emitOperand(stmt.methods.size());
+    emit(superSlot >= 0 ? 1 : 0);
+    emitOperand(Math.max(superSlot, 0));
+
+    if (slot < 0) {
+      emit(OpCode.DEFINE_GLOBAL);
+      emitName(stmt.name);
+    } else {
+      emit(stmt.captured ? OpCode.SET_BOXED : OpCode.SET_LOCAL);
+      emitOperand(slot);
+      emit(OpCode.POP);
+    }
+
+    if (stmt.superclass != null) endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    line = stmt.name.line;
+
+    if (isGlobalScope()) {
+      compileFunction(stmt, false, false);
+      emit(OpCode.DEFINE_GLOBAL);
+      emitName(stmt.name);
+      return null;
+    }
+
+    int slot = declareLocal();
+    if (stmt.captured) {
+      // A function that refers to itself captures its own variable, so the box has to be there first
+      emit(OpCode.NIL);
+      emit(OpCode.BOX);
+      compileFunction(stmt, false, false);
+      emit(OpCode.SET_BOXED);
+      emitOperand(slot);
+      emit(OpCode.POP);
+    } else {
+      // The closure stays on the stack as the local
+      compileFunction(stmt, false, false);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.thenBranch);
+    int elseJump = emitJump(OpCode.JUMP);
+
+    patchJump(thenJump);
+    emit(OpCode.POP);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emit(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.keyword.line;
+
+    // An initializer's return value gets replaced by 'this' in the VM, so nil is fine here
+    if (stmt.value == null) {
+      emit(OpCode.NIL);
+    } else {
+      compile(stmt.value);
+    }
+    emit(OpCode.RETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    line = stmt.name.line;
+
+    if (stmt.initializer == null) {
+      emit(OpCode.NIL);
+    } else {
+      compile(stmt.initializer);
+    }
+
+    if (isGlobalScope()) {
+      emit(OpCode.DEFINE_GLOBAL);
+      emitName(stmt.name);
+      return null;
+    }
+
+    // The value stays on the stack as the local
+    declareLocal();
+    if (stmt.captured) emit(OpCode.BOX);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = function.chunk.count;
+    compile(stmt.condition);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.body);
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  // Expressions
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    line = expr.name.line;
+
+    if (expr.depth >= 0) {
+      emit(expr.captured ? OpCode.SET_BOXED : OpCode.SET_LOCAL);
+      emitOperand(expr.slot);
+    } else if (expr.upvalue >= 0) {
+      emit(OpCode.SET_UPVALUE);
+      emitOperand(expr.upvalue);
+    } else {
+      emit(OpCode.SET_GLOBAL);
+      emitOperand(expr.global);
+      emitName(expr.name);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    line = expr.operator.line;
+
+    switch (expr.operator.type) {
+      case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+      case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+      case GREATER: emit(OpCode.GREATER); break;
+      case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+      case LESS: emit(OpCode.LESS); break;
+      case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+      case MINUS: emit(OpCode.SUBTRACT); break;
+      case PLUS: emit(OpCode.ADD); break;
+      case SLASH: emit(OpCode.DIVIDE); break;
+      case STAR: emit(OpCode.MULTIPLY); break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    boolean invoke = expr.callee instanceof Expr.Get;
+    if (invoke) {
+      Expr.Get get = (Expr.Get)expr.callee;
+      compile(get.object);
+      line = get.name.line;
+      emitCached(OpCode.GET_METHOD, get.cache);
+      emitName(get.name);
+    } else {
+      compile(expr.callee);
+    }
+
+    for (Expr argument : expr.arguments) {
+      compile(argument);
+    }
+    line = expr.paren.line;
+    if (expr.tail) {
+      emit(invoke ? OpCode.TAIL_INVOKE : OpCode.TAIL_CALL);
+    } else {
+      emit(invoke ? OpCode.INVOKE : OpCode.CALL);
+    }
+    emit(expr.arguments.size());
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    line = expr.name.line;
+    emitCached(OpCode.GET_PROPERTY, expr.cache);
+    emitName(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emit(OpCode.NIL);
+    } else if (expr.value == Boolean.TRUE) {
+      emit(OpCode.TRUE);
+    } else if (expr.value == Boolean.FALSE) {
+      emit(OpCode.FALSE);
+    } else {
+      emit(OpCode.CONSTANT);
+      emitOperand(makeConstant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+
+    // The left operand is the result if it settles the answer, otherwise it's popped for the right one
+    int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(expr.right);
+    patchJump(endJump);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    line = expr.name.line;
+
+    // The Interpreter checks the target before evaluating the value, which only shows if the value has side effects
+    if (!isSimple(expr.value)) {
+      emit(OpCode.CHECK_INSTANCE);
+      emitName(expr.name);
+    }
+
+    compile(expr.value);
+    line = expr.name.line;
+    emitCached(OpCode.SET_PROPERTY, expr.cache);
+    emitName(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    compile(expr.receiver);
+    line = expr.method.line;
+    emit(OpCode.GET_SUPER);
+    emitName(expr.method);
+    emitOperand(expr.upvalue);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    line = expr.keyword.line;
+    read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.captured, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    line = expr.operator.line;
+    emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    line = expr.name.line;
+    read(expr.name, expr.depth, expr.slot, expr.upvalue, expr.captured, expr.global);
+    return null;
+  }
+
+  // Helper Methods
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void read(Token name, int depth, int slot, int upvalue, boolean captured, int global) {
+    if (depth >= 0) {
+      emit(captured ? OpCode.GET_BOXED : OpCode.GET_LOCAL);
+      emitOperand(slot);
+    } else if (upvalue >= 0) {
+      emit(OpCode.GET_UPVALUE);
+      emitOperand(upvalue);
+    } else {
+      emit(OpCode.GET_GLOBAL);
+      emitOperand(global);
+      emitName(name);
+    }
+  }
+
+  private void compileFunction(Stmt.Function declaration, boolean isMethod, boolean isInitializer) {
+    // Upvalues are captured from the scopes the declaration sits in, so map them to slots before leaving them
+    int[] captures = new int[declaration.upvalueDepths.length];
+    boolean[] fromSlot = new boolean[captures.length];
+    for (int i = 0; i < captures.length; i++) {
+      fromSlot[i] = declaration.upvalueDepths[i] >= 0;
+      captures[i] = declaration.upvalueSlots[i];
+    }
+
+    FunctionScope enclosing = function;
+    function = new FunctionScope();
+
+    // Same layout as the Resolver: 'this' for methods, then the parameters, then the body's locals.
+    // The VM puts the arguments there (and boxes the captured ones) before running the body
+    beginScope();
+    if (isMethod) declareLocal();
+    for (int i = 0; i < declaration.params.size(); i++) declareLocal();
+    for (Stmt statement : declaration.body) {
+      compile(statement);
+    }
+    emit(OpCode.NIL);
+    emit(OpCode.RETURN);
+
+    VMFunction.Prototype prototype = new VMFunction.Prototype(declaration, function.chunk, isInitializer, captures, fromSlot);
+    function = enclosing;
+
+    line = declaration.name.line;
+    emit(OpCode.CLOSURE);
+    emitOperand(makeConstant(prototype));
+  }
+
+  private boolean isSimple(Expr expr) {
+    // Expressions that can't print, assign or call anything
+    return expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This;
+  }
+
+  private boolean isGlobalScope() {
+    return function.scopes.isEmpty();
+  }
+
+  private void beginScope() {
+    List<Scope> scopes = function.scopes;
+    Scope enclosing = scopes.isEmpty() ? null : scopes.get(scopes.size() - 1);
+    scopes.add(new Scope(enclosing == null ? 0 : enclosing.base + enclosing.count));
+  }
+
+  private void endScope() {
+    // The block's locals are the top of the stack now, so they just get popped
+    Scope scope = function.scopes.remove(function.scopes.size() - 1);
+    for (int i = 0; i < scope.count; i++) {
+      emit(OpCode.POP);
+    }
+  }
+
+  private int declareLocal() {
+    Scope scope = function.scopes.get(function.scopes.size() - 1);
+    return scope.base + scope.count++;
+  }
+
+  private int makeConstant(Object value) {
+    return function.chunk.addConstant(value);
+  }
+
+  private void emit(int b) {
+    function.chunk.write(b, line);
+  }
+
+  // Slots, indexes and counts. One that doesn't fit in a u16 goes in the chunk's wide table
+  private void emitOperand(int value) {
+    function.chunk.writeOperand(value, line);
+  }
+
+  private void emitName(Token name) {
+    emitOperand(makeConstant(name.lexeme()));
+  }
+
+  private void emitCached(byte instruction, InlineCache cache) {
+    emit(instruction);
+    function.chunk.caches[function.chunk.count - 1] = cache;
+  }
+
+  private int emitJump(byte instruction) {
+    emit(instruction);
+    emitOperand(0);
+    return function.chunk.count - 2;
+  }
+
+  private void patchJump(int offset) {
+    // -2 to account for the jump's own operand
+    function.chunk.patchOperand(offset, function.chunk.count - offset - 2);
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.LOOP);
+    emitOperand(function.chunk.count - loopStart + 2);
+  }
+
+}
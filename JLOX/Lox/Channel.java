@@ -0,0 +1,87 @@
+package JLOX.Lox;
+
+import java.util.ArrayDeque;
+
+// What channel(capacity) makes, for tasks to pass values to each other. send(channel, value) waits
+// while the channel is full, receive(channel) while it's empty. A channel with capacity 0 holds
+// nothing at all: a send waits for a receive to take its value
+class Channel {
+  // The deque can't hold null, nil goes through it as this
+  private static final Object NIL = new Object();
+
+  private final int capacity;
+  private final ArrayDeque<Object> values = new ArrayDeque<>();
+  // A send on a channel with capacity 0 waits until as many values have been received as had been
+  // sent with its own
+  private long sent = 0;
+  private long received = 0;
+  private final Waiters waiters = new Waiters();
+
+  private Channel(int capacity) {
+    this.capacity = capacity;
+  }
+
+  static void define(Environment globals) {
+    globals.define("channel", new Native(1, (interpreter, arguments) -> {
+      Object capacity = arguments.get(0);
+      if (!(capacity instanceof Double) || (double)capacity < 0 || (double)capacity > Integer.MAX_VALUE
+          || (double)capacity != Math.floor((double)capacity)) {
+        throw new NativeError("Channel capacity must be a whole number, 0 or more.");
+      }
+      return new Channel((int)(double)capacity);
+    }));
+
+    globals.define("send", new Native(2, (interpreter, arguments) -> {
+      if (!(arguments.get(0) instanceof Channel)) {
+        throw new NativeError("Can only send to channels.");
+      }
+      try {
+        ((Channel)arguments.get(0)).send(arguments.get(1), interpreter.context);
+      } catch (InterruptedException error) {
+        throw interrupted();
+      }
+      return null;
+    }));
+
+    globals.define("receive", new Native(1, (interpreter, arguments) -> {
+      if (!(arguments.get(0) instanceof Channel)) {
+        throw new NativeError("Can only receive from channels.");
+      }
+      try {
+        return ((Channel)arguments.get(0)).receive(interpreter.context);
+      } catch (InterruptedException error) {
+        throw interrupted();
+      }
+    }));
+  }
+
+  private synchronized void send(Object value, LoxContext context) throws InterruptedException {
+    // Capacity 0 still holds the one value being handed over
+    while (values.size() >= Math.max(capacity, 1)) waiters.await(this, context);
+    values.add(value == null ? NIL : value);
+    long ticket = ++sent;
+    waiters.wakeAll(this, context);
+
+    if (capacity > 0) return;
+    while (received < ticket) waiters.await(this, context);
+  }
+
+  private synchronized Object receive(LoxContext context) throws InterruptedException {
+    while (values.isEmpty()) waiters.await(this, context);
+    Object value = values.poll();
+    received++;
+    waiters.wakeAll(this, context);
+    return value == NIL ? null : value;
+  }
+
+  private static NativeError interrupted() {
+    Thread.currentThread().interrupt();
+    return new NativeError("Interrupted.");
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+
+}
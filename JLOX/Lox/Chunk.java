@@ -0,0 +1,67 @@
+package JLOX.Lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A function's compiled bytecode, with its constants and the source line of every byte for errors
+class Chunk {
+  byte[] code = new byte[64];
+  int[] lines = new int[64];
+  int count = 0;
+  final List<Object> constants = new ArrayList<>();
+  // Where each number and string constant is, so a script with lots of them doesn't search the list for each
+  private final Map<Object, Integer> indexes = new HashMap<>();
+  // The inline cache of each property instruction, at the instruction's offset
+  InlineCache[] caches = new InlineCache[64];
+  // Operands too big for their u16, at the operand's offset. Only made once a chunk has one
+  private int[] wide;
+
+  void write(int b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+      caches = Arrays.copyOf(caches, count * 2);
+      if (wide != null) wide = Arrays.copyOf(wide, count * 2);
+    }
+    code[count] = (byte)b;
+    lines[count] = line;
+    count++;
+  }
+
+  void writeOperand(int value, int line) {
+    write(OpCode.WIDE >> 8, line);
+    write(OpCode.WIDE & 0xff, line);
+    patchOperand(count - 2, value);
+  }
+
+  void patchOperand(int offset, int value) {
+    if (value >= OpCode.WIDE) {
+      if (wide == null) wide = new int[code.length];
+      wide[offset] = value;
+      value = OpCode.WIDE;
+    }
+    code[offset] = (byte)((value >> 8) & 0xff);
+    code[offset + 1] = (byte)(value & 0xff);
+  }
+
+  int operand(int offset) {
+    int value = ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    return value != OpCode.WIDE ? value : wide[offset];
+  }
+
+  int addConstant(Object value) {
+    // Numbers and strings are values, the same one only needs to be stored once. Names are
+    // interned strings, so each one is stored once however many places use it
+    if (value instanceof Double || value instanceof String) {
+      Integer existing = indexes.putIfAbsent(value, constants.size());
+      if (existing != null) return existing;
+    }
+
+    constants.add(value);
+    return constants.size() - 1;
+  }
+
+}
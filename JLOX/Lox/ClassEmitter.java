@@ -0,0 +1,313 @@
+package JLOX.Lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format for the Jit: one class, no fields, a few methods.
+// Classes are written as version 49 (Java 5), so the verifier infers the types itself and
+// no StackMapTable frames have to be computed
+class ClassEmitter {
+  static final int ACONST_NULL = 0x01;
+  static final int SIPUSH = 0x11;
+  static final int ALOAD = 0x19;
+  static final int AALOAD = 0x32;
+  static final int ASTORE = 0x3a;
+  static final int AASTORE = 0x53;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int SWAP = 0x5f;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int GOTO = 0xa7;
+  static final int ARETURN = 0xb0;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int GETFIELD = 0xb4;
+  static final int PUTFIELD = 0xb5;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int INVOKEINTERFACE = 0xb9;
+  static final int ANEWARRAY = 0xbd;
+  static final int CHECKCAST = 0xc0;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(pool);
+  private final Map<String, Integer> poolEntries = new HashMap<>();
+  private int poolCount = 1;
+
+  private final String name;
+  private final String superName;
+  private final List<byte[]> methods = new ArrayList<>();
+
+  ClassEmitter(String name, String superName) {
+    this.name = name;
+    this.superName = superName;
+  }
+
+  // Constant pool
+
+  int utf8(String value) {
+    Integer index = poolEntries.get("U" + value);
+    if (index != null) return index;
+    write(out -> {
+      out.writeByte(1);
+      out.writeUTF(value);
+    });
+    poolEntries.put("U" + value, poolCount);
+    return poolCount++;
+  }
+
+  int classRef(String internalName) {
+    int nameIndex = utf8(internalName);
+    return entry("C" + internalName, 7, nameIndex, -1);
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return entry("F" + owner + "." + name + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return entry("I" + owner + "." + name + descriptor, 11, classRef(owner), nameAndType(name, descriptor));
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    return entry("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+  }
+
+  private int entry(String key, int tag, int first, int second) {
+    Integer index = poolEntries.get(key);
+    if (index != null) return index;
+    write(out -> {
+      out.writeByte(tag);
+      out.writeShort(first);
+      if (second >= 0) out.writeShort(second);
+    });
+    poolEntries.put(key, poolCount);
+    return poolCount++;
+  }
+
+  // Methods
+
+  Code method(String name, String descriptor) {
+    return new Code(name, descriptor);
+  }
+
+  // One method's bytecode. Tracks the operand stack depth as instructions are added,
+  // which is simple because every Lox expression leaves exactly one value behind
+  class Code {
+    private final String methodName;
+    private final String descriptor;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Integer> labels = new ArrayList<>();
+    // Branch instruction offsets and the label each one jumps to
+    private final List<int[]> fixups = new ArrayList<>();
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    private Code(String methodName, String descriptor) {
+      this.methodName = methodName;
+      this.descriptor = descriptor;
+      this.maxLocals = argumentSlots(descriptor) + 1;
+    }
+
+    void op(int opcode, int stackEffect) {
+      code.write(opcode);
+      adjust(stackEffect);
+    }
+
+    void load(int local) {
+      localOp(ALOAD, local);
+      adjust(1);
+    }
+
+    void store(int local) {
+      localOp(ASTORE, local);
+      adjust(-1);
+    }
+
+    void push(int value) {
+      // Constant indexes and argument counts, all of them fit in a short
+      if (value > Short.MAX_VALUE) throw new IllegalStateException("Constant index too large.");
+      code.write(SIPUSH);
+      writeShort(value);
+      adjust(1);
+    }
+
+    void field(int opcode, String owner, String name, String descriptor) {
+      code.write(opcode);
+      writeShort(fieldRef(owner, name, descriptor));
+      int size = slots(descriptor);
+      if (opcode == GETSTATIC) adjust(size);
+      else if (opcode == GETFIELD) adjust(size - 1);
+      else adjust(-size - 1);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+      code.write(opcode);
+      if (opcode == INVOKEINTERFACE) {
+        writeShort(interfaceMethodRef(owner, name, descriptor));
+        code.write(argumentSlots(descriptor) + 1);
+        code.write(0);
+      } else {
+        writeShort(methodRef(owner, name, descriptor));
+      }
+
+      int effect = slots(descriptor.substring(descriptor.indexOf(')') + 1)) - argumentSlots(descriptor);
+      if (opcode != INVOKESTATIC) effect--;
+      adjust(effect);
+    }
+
+    void type(int opcode, String internalName) {
+      // CHECKCAST leaves the stack as it is, ANEWARRAY swaps the length for the array
+      code.write(opcode);
+      writeShort(classRef(internalName));
+    }
+
+    int newLabel() {
+      labels.add(-1);
+      return labels.size() - 1;
+    }
+
+    void mark(int label) {
+      labels.set(label, code.size());
+    }
+
+    void jump(int opcode, int label) {
+      fixups.add(new int[] { code.size(), label });
+      code.write(opcode);
+      writeShort(0);
+      if (opcode != GOTO) adjust(-1);
+    }
+
+    void end() {
+      byte[] bytes = code.toByteArray();
+      if (bytes.length > 0xffff) throw new IllegalStateException("Method too large.");
+
+      for (int[] fixup : fixups) {
+        int offset = labels.get(fixup[1]) - fixup[0];
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new IllegalStateException("Jump too far.");
+        bytes[fixup[0] + 1] = (byte)(offset >> 8);
+        bytes[fixup[0] + 2] = (byte)offset;
+      }
+
+      int nameIndex = utf8(methodName);
+      int descriptorIndex = utf8(descriptor);
+      int codeIndex = utf8("Code");
+      methods.add(bytes(out -> {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+        out.writeShort(codeIndex);
+        out.writeInt(12 + bytes.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        // No exception table, no attributes
+        out.writeShort(0);
+        out.writeShort(0);
+      }));
+    }
+
+    private void localOp(int opcode, int local) {
+      if (local > 0xff) throw new IllegalStateException("Too many locals.");
+      code.write(opcode);
+      code.write(local);
+      maxLocals = Math.max(maxLocals, local + 1);
+    }
+
+    private void writeShort(int value) {
+      code.write(value >> 8);
+      code.write(value);
+    }
+
+    private void adjust(int effect) {
+      stack += effect;
+      maxStack = Math.max(maxStack, stack);
+    }
+  }
+
+  byte[] toByteArray() {
+    int thisIndex = classRef(name);
+    int superIndex = classRef(superName);
+
+    return bytes(out -> {
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(49);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisIndex);
+      out.writeShort(superIndex);
+      // No interfaces of its own and no fields, the superclass has them
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(methods.size());
+      for (byte[] method : methods) out.write(method);
+      out.writeShort(0);
+    });
+  }
+
+  // Descriptor sizes, in stack slots
+
+  private static int argumentSlots(String descriptor) {
+    int slots = 0;
+    int i = 1;
+    while (descriptor.charAt(i) != ')') {
+      char c = descriptor.charAt(i);
+      while (c == '[') c = descriptor.charAt(++i);
+      if (c == 'L') i = descriptor.indexOf(';', i);
+      slots += (c == 'D' || c == 'J') && descriptor.charAt(i - 1) != '[' ? 2 : 1;
+      i++;
+    }
+    return slots;
+  }
+
+  private static int slots(String type) {
+    switch (type.charAt(0)) {
+      case 'V': return 0;
+      case 'D': case 'J': return 2;
+      default: return 1;
+    }
+  }
+
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private void write(Writer writer) {
+    try {
+      writer.write(poolOut);
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  private static byte[] bytes(Writer writer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      writer.write(new DataOutputStream(bytes));
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+    return bytes.toByteArray();
+  }
+
+}
@@ -1,66 +1,114 @@
 package JLOX.Lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
-  final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<String, Object>();
-  
+  private static final Object[] NO_SLOTS = new Object[0];
+  // What a global's slot holds until its 'var', 'fun' or 'class' has run
+  private static final Object UNDEFINED = new Object();
+  // Globals are kept in blocks of this many slots
+  private static final int BLOCK_BITS = 10;
+  private static final int BLOCK = 1 << BLOCK_BITS;
+
+  // The upvalues of the function call this env belongs to. Anything a closure needs from
+  // enclosing functions is reached through them, environments aren't chained
+  final Upvalue[] upvalues;
+  // A function call's env holds the locals of all of its blocks in one array, indexed by the slot the
+  // Resolver handed out. A block's locals go on the end and are dropped again when it ends (see truncate()),
+  // so a block doesn't need an env of its own.
+  // The global env keeps its values in 'blocks' instead. Each name gets a slot the first time the Resolver
+  // sees it used, which the node caches, so only natives and the REPL go through 'names' when running
+  private final Map<String, Integer> names;
+  private Object[] slots = NO_SLOTS;
+  private int count = 0;
+  // With --stream and in the REPL, the Resolver hands out new slots while tasks are running. A block is
+  // never copied or replaced once it's made, so a task's write can't land in an array that's on its way
+  // out. Only the table of blocks grows, under the lock in global(), and it's volatile so a task sees
+  // the block of any slot it was handed
+  private volatile Object[][] blocks;
+
   Environment() {
-    enclosing = null;
+    upvalues = null;
+    names = new HashMap<String, Integer>();
+    blocks = new Object[4][];
   }
 
-  Environment(Environment enclosing) {
-    this.enclosing = enclosing;
+  Environment(Upvalue[] upvalues) {
+    // A function call, or the blocks of top-level code
+    this.upvalues = upvalues;
+    names = null;
   }
   
   void define(String name, Object value) {
     // The value can also be a function
-    values.put(name, value);
+    if (names != null) {
+      int slot = global(name);
+      blocks[slot >> BLOCK_BITS][slot & (BLOCK - 1)] = value;
+      return;
+    }
+
+    // Locals are declared in the same order the Resolver numbered them, so the next free slot is this one's
+    if (count == slots.length) {
+      slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+    }
+    slots[count++] = value;
   }
 
-  Object get(Token name) {
-    // Checking if the variable exists and returns it's value
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    } 
+  // The global's slot, handed out the first time it's asked for. Scripts can use a global in a function
+  // before the declaration has run, so the slot exists from then on but stays UNDEFINED until it does
+  synchronized int global(String name) {
+    Integer slot = names.get(name);
+    if (slot != null) return slot;
 
-    if (enclosing != null) return enclosing.get(name);
+    if ((count & (BLOCK - 1)) == 0) {
+      Object[][] blocks = this.blocks;
+      int index = count >> BLOCK_BITS;
+      if (index == blocks.length) blocks = Arrays.copyOf(blocks, index * 2);
+      Object[] block = new Object[BLOCK];
+      Arrays.fill(block, UNDEFINED);
+      blocks[index] = block;
+      this.blocks = blocks;
+    }
+    names.put(name, count);
+    return count++;
+  }
 
-    
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  // The name and line are only for the error, the bytecode VM keeps names as strings
+  Object getGlobal(int slot, String name, int line) {
+    Object value = blocks[slot >> BLOCK_BITS][slot & (BLOCK - 1)];
+    if (value == UNDEFINED) throw undefined(name, line);
+    return value;
   }
 
-  void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-    
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
-    }
+  void assignGlobal(int slot, String name, int line, Object value) {
+    Object[] block = blocks[slot >> BLOCK_BITS];
+    if (block[slot & (BLOCK - 1)] == UNDEFINED) throw undefined(name, line);
+    block[slot & (BLOCK - 1)] = value;
+  }
 
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-  } 
+  private static RuntimeError undefined(String name, int line) {
+    return new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line), "Undefined variable '" + name + "'.");
+  }
 
-  Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+  Object getAt(int slot) {
+    return slots[slot];
   }  
 
-  Environment ancestor(int distance) {
-    Environment environment = this;
-    for (int i=0; i<distance; i++) { 
-      environment = environment.enclosing;
-    }
+  void assignAt(int slot, Object value) {
+    slots[slot] = value;
+  }
 
-    return environment;
-  } 
+  // How many locals are live, and dropping the ones declared since. Blocks use these on the way in and out
+  int count() {
+    return count;
+  }
 
-  void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  void truncate(int count) {
+    // Cleared too, so the env doesn't keep a finished block's values alive
+    for (int i = count; i < this.count; i++) slots[i] = null;
+    this.count = count;
   }
 
   
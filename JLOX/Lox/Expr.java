@@ -30,6 +30,11 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot;
+    int upvalue = -1;
+    boolean captured;
+    int global = -1;
   }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -62,6 +67,7 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    boolean tail;
   }
  static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -76,6 +82,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    InlineCache cache = new InlineCache();
   }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -132,6 +139,7 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    InlineCache cache = new InlineCache();
   }
  static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -146,6 +154,8 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int upvalue = -1;
+    Expr.This receiver;
   }
  static class This extends Expr {
     This(Token keyword) {
@@ -158,6 +168,10 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
+    int slot;
+    int upvalue = -1;
+    boolean captured;
   }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -184,6 +198,11 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot;
+    int upvalue = -1;
+    boolean captured;
+    int global = -1;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,925 @@
+package JLOX.Lox;
+
+// The executable counterparts of Expr. Each node evaluates itself against the current Frame,
+// so there's no visitor double dispatch on the way down
+abstract class ExprNode extends Node {
+  abstract Object execute(Frame frame);
+
+  // The unboxed channel. Nodes that can produce a primitive double override this, for the rest the
+  // value is unboxed here, and one that isn't a number comes back through UnexpectedResult
+  double executeDouble(Frame frame) throws UnexpectedResult {
+    Object value = execute(frame);
+    if (value instanceof Double) return (double)value;
+    throw new UnexpectedResult(value);
+  }
+
+  // For expression statements, where nothing needs the result boxed
+  void executeVoid(Frame frame) {
+    execute(frame);
+  }
+
+  // For 'return f()'. Call and Invoke hand the call back to the function that's returning instead of making it
+  Object executeTail(Frame frame) {
+    return new Return(execute(frame));
+  }
+
+  // Carries the value a node produced when it was asked for a double and didn't have one
+  static final class UnexpectedResult extends Exception {
+    final Object result;
+
+    UnexpectedResult(Object result) {
+      super(null, null, false, false);
+      this.result = result;
+    }
+  }
+
+  static class Literal extends ExprNode {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return value;
+    }
+  }
+
+  // Variables
+
+  static class ReadLocal extends ExprNode {
+    private final int slot;
+
+    ReadLocal(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object value = frame.slots[slot];
+      return value == Frame.DOUBLE ? (Object)frame.doubles[slot] : value;
+    }
+
+    @Override
+    double executeDouble(Frame frame) throws UnexpectedResult {
+      Object value = frame.slots[slot];
+      if (value == Frame.DOUBLE) return frame.doubles[slot];
+      if (value instanceof Double) return (double)value;
+      throw new UnexpectedResult(value);
+    }
+  }
+
+  static class ReadLocalBox extends ExprNode {
+    // A local some closure captured, so the slot holds its Upvalue
+    private final int slot;
+
+    ReadLocalBox(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return ((Upvalue)frame.slots[slot]).value;
+    }
+  }
+
+  static class ReadUpvalue extends ExprNode {
+    private final int index;
+
+    ReadUpvalue(int index) {
+      this.index = index;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return frame.upvalues[index].value;
+    }
+  }
+
+  static class ReadGlobal extends ExprNode {
+    private final Token name;
+    private final int slot;
+    private final Environment globals;
+
+    ReadGlobal(Token name, int slot, Environment globals) {
+      this.name = name;
+      this.slot = slot;
+      this.globals = globals;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return globals.getGlobal(slot, name.lexeme(), name.line);
+    }
+  }
+
+  static class WriteLocal extends ExprNode {
+    private final int slot;
+    private ExprNode value;
+
+    WriteLocal(int slot, ExprNode value) {
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object result = value.execute(frame);
+      frame.slots[slot] = result;
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  // Speculates that the local only ever holds numbers and keeps it unboxed in the frame. The first
+  // value that isn't a number is stored boxed, and the node turns into the plain WriteLocal for good
+  static class WriteLocalDouble extends ExprNode {
+    private final int slot;
+    private ExprNode value;
+
+    WriteLocalDouble(int slot, ExprNode value) {
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      try {
+        return executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        return result.result;
+      }
+    }
+
+    @Override
+    double executeDouble(Frame frame) throws UnexpectedResult {
+      double result;
+      try {
+        result = value.executeDouble(frame);
+      } catch (UnexpectedResult unexpected) {
+        replace(new WriteLocal(slot, value));
+        frame.slots[slot] = unexpected.result;
+        throw unexpected;
+      }
+
+      frame.slots[slot] = Frame.DOUBLE;
+      frame.doubles[slot] = result;
+      return result;
+    }
+
+    @Override
+    void executeVoid(Frame frame) {
+      try {
+        executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        // Already stored, nothing uses the value
+      }
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  static class WriteLocalBox extends ExprNode {
+    private final int slot;
+    private ExprNode value;
+
+    WriteLocalBox(int slot, ExprNode value) {
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object result = value.execute(frame);
+      ((Upvalue)frame.slots[slot]).value = result;
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  static class WriteUpvalue extends ExprNode {
+    private final int index;
+    private ExprNode value;
+
+    WriteUpvalue(int index, ExprNode value) {
+      this.index = index;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object result = value.execute(frame);
+      frame.upvalues[index].value = result;
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  static class WriteGlobal extends ExprNode {
+    private final Token name;
+    private final int slot;
+    private final Environment globals;
+    private ExprNode value;
+
+    WriteGlobal(Token name, int slot, Environment globals, ExprNode value) {
+      this.name = name;
+      this.slot = slot;
+      this.globals = globals;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object result = value.execute(frame);
+      globals.assignGlobal(slot, name.lexeme(), name.line, result);
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  // Operators
+
+  abstract static class Binary extends ExprNode {
+    final Token operator;
+    ExprNode left;
+    ExprNode right;
+
+    Binary(Token operator, ExprNode left, ExprNode right) {
+      this.operator = operator;
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == left) left = (ExprNode)replacement;
+      if (child == right) right = (ExprNode)replacement;
+    }
+  }
+
+  // Operators that only work on numbers. Operands are evaluated through executeDouble so nothing
+  // is boxed in between, and an operand that isn't a number can only mean a runtime error
+  abstract static class NumberBinary extends Binary {
+    NumberBinary(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    double leftDouble(Frame frame) {
+      try {
+        return left.executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        // The right operand still runs before the error, like in the Interpreter
+        right.execute(frame);
+        throw new RuntimeError(operator, "Operands must be numbers.");
+      }
+    }
+
+    double rightDouble(Frame frame) {
+      try {
+        return right.executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        throw new RuntimeError(operator, "Operands must be numbers.");
+      }
+    }
+  }
+
+  // '+' starts out not knowing its operand types. The first time it runs it rewrites itself
+  // into the specialization for what it saw, and a specialization that sees something else
+  // gives up and becomes the generic version for good
+  static class Add extends Binary {
+    Add(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object left = this.left.execute(frame);
+      Object right = this.right.execute(frame);
+
+      if (left instanceof Double && right instanceof Double) {
+        return replace(new AddNumbers(operator, this.left, this.right)).add(left, right);
+      }
+      if (left instanceof CharSequence && right instanceof CharSequence) {
+        return replace(new AddStrings(operator, this.left, this.right)).add(left, right);
+      }
+      return replace(new AddGeneric(operator, this.left, this.right)).add(left, right);
+    }
+  }
+
+  static class AddNumbers extends Binary {
+    AddNumbers(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      try {
+        return executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        return result.result;
+      }
+    }
+
+    @Override
+    double executeDouble(Frame frame) throws UnexpectedResult {
+      double left;
+      try {
+        left = this.left.executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        throw new UnexpectedResult(add(result.result, right.execute(frame)));
+      }
+
+      try {
+        return left + right.executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        throw new UnexpectedResult(add(left, result.result));
+      }
+    }
+
+    Object add(Object left, Object right) {
+      if (left instanceof Double && right instanceof Double) {
+        return (double)left + (double)right;
+      }
+      return replace(new AddGeneric(operator, this.left, this.right)).add(left, right);
+    }
+  }
+
+  static class AddStrings extends Binary {
+    AddStrings(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return add(left.execute(frame), right.execute(frame));
+    }
+
+    Object add(Object left, Object right) {
+      if (left instanceof CharSequence && right instanceof CharSequence) {
+        return Rope.concat((CharSequence)left, (CharSequence)right);
+      }
+      return replace(new AddGeneric(operator, this.left, this.right)).add(left, right);
+    }
+  }
+
+  static class AddGeneric extends Binary {
+    AddGeneric(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return add(left.execute(frame), right.execute(frame));
+    }
+
+    Object add(Object left, Object right) {
+      if (left instanceof Double && right instanceof Double) {
+        return (double)left + (double)right;
+      }
+      if (left instanceof CharSequence && right instanceof CharSequence) {
+        return Rope.concat((CharSequence)left, (CharSequence)right);
+      }
+      throw new RuntimeError(operator, "Operants must be two numbers or two strings.");
+    }
+  }
+
+  static class Subtract extends NumberBinary {
+    Subtract(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return executeDouble(frame);
+    }
+
+    @Override
+    double executeDouble(Frame frame) {
+      double left = leftDouble(frame);
+      return left - rightDouble(frame);
+    }
+  }
+
+  static class Multiply extends NumberBinary {
+    Multiply(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return executeDouble(frame);
+    }
+
+    @Override
+    double executeDouble(Frame frame) {
+      double left = leftDouble(frame);
+      return left * rightDouble(frame);
+    }
+  }
+
+  static class Divide extends NumberBinary {
+    Divide(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return executeDouble(frame);
+    }
+
+    @Override
+    double executeDouble(Frame frame) {
+      double left = leftDouble(frame);
+      return left / rightDouble(frame);
+    }
+  }
+
+  static class Greater extends NumberBinary {
+    Greater(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      double left = leftDouble(frame);
+      return left > rightDouble(frame);
+    }
+  }
+
+  static class GreaterEqual extends NumberBinary {
+    GreaterEqual(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      double left = leftDouble(frame);
+      return left >= rightDouble(frame);
+    }
+  }
+
+  static class Less extends NumberBinary {
+    Less(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      double left = leftDouble(frame);
+      return left < rightDouble(frame);
+    }
+  }
+
+  static class LessEqual extends NumberBinary {
+    LessEqual(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      double left = leftDouble(frame);
+      return left <= rightDouble(frame);
+    }
+  }
+
+  static class Equal extends Binary {
+    Equal(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return Interpreter.isEqual(left.execute(frame), right.execute(frame));
+    }
+  }
+
+  static class NotEqual extends Binary {
+    NotEqual(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return !Interpreter.isEqual(left.execute(frame), right.execute(frame));
+    }
+  }
+
+  static class And extends Binary {
+    And(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object left = this.left.execute(frame);
+      if (!Interpreter.isTruthy(left)) return left;
+      return right.execute(frame);
+    }
+  }
+
+  static class Or extends Binary {
+    Or(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object left = this.left.execute(frame);
+      if (Interpreter.isTruthy(left)) return left;
+      return right.execute(frame);
+    }
+  }
+
+  static class Negate extends ExprNode {
+    private final Token operator;
+    private ExprNode right;
+
+    Negate(Token operator, ExprNode right) {
+      this.operator = operator;
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return executeDouble(frame);
+    }
+
+    @Override
+    double executeDouble(Frame frame) {
+      try {
+        return -right.executeDouble(frame);
+      } catch (UnexpectedResult result) {
+        throw new RuntimeError(operator, "Operand must be a number.");
+      }
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == right) right = (ExprNode)replacement;
+    }
+  }
+
+  static class Not extends ExprNode {
+    private ExprNode right;
+
+    Not(ExprNode right) {
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      return !Interpreter.isTruthy(right.execute(frame));
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == right) right = (ExprNode)replacement;
+    }
+  }
+
+  // Functions and objects
+
+  static class Call extends ExprNode {
+    private final Token paren;
+    private ExprNode callee;
+    private final ExprNode[] arguments;
+
+    Call(Token paren, ExprNode callee, ExprNode[] arguments) {
+      this.paren = paren;
+      this.callee = adopt(callee);
+      this.arguments = arguments;
+      for (ExprNode argument : arguments) adopt(argument);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      frame.interpreter.enter(paren);
+      try {
+        return call(frame);
+      } catch (StackOverflowError error) {
+        throw Interpreter.stackOverflow(paren);
+      } finally {
+        frame.interpreter.exit();
+      }
+    }
+
+    private Object call(Frame frame) {
+      Object callee = this.callee.execute(frame);
+
+      // A Lox function with the right number of arguments gets them evaluated straight into its frame
+      if (callee instanceof NodeFunction && this.arguments.length == ((NodeFunction)callee).arity()) {
+        NodeFunction function = (NodeFunction)callee;
+        return callDirect(function, function.receiver, this.arguments, frame);
+      }
+
+      return callValue(frame.interpreter, paren, callee, evaluate(this.arguments, frame));
+    }
+
+    @Override
+    Object executeTail(Frame frame) {
+      frame.interpreter.enter(paren);
+      try {
+        return tailCall(frame);
+      } catch (StackOverflowError error) {
+        throw Interpreter.stackOverflow(paren);
+      } finally {
+        frame.interpreter.exit();
+      }
+    }
+
+    private Object tailCall(Frame frame) {
+      Object callee = this.callee.execute(frame);
+
+      if (callee instanceof NodeFunction && this.arguments.length == ((NodeFunction)callee).arity()
+          && !((NodeFunction)callee).isInitializer) {
+        NodeFunction function = (NodeFunction)callee;
+        return new NodeFunction.TailCall(function, frame(function, function.receiver, this.arguments, frame));
+      }
+
+      return new Return(callValue(frame.interpreter, paren, callee, evaluate(this.arguments, frame)));
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == callee) callee = (ExprNode)replacement;
+      for (int i = 0; i < arguments.length; i++) {
+        if (child == arguments[i]) arguments[i] = (ExprNode)replacement;
+      }
+    }
+  }
+
+  // obj.method(), calling the method with 'obj' as 'this' instead of making a bound copy of it first
+  static class Invoke extends ExprNode {
+    private final Token paren;
+    private final Token name;
+    private final InlineCache cache = new InlineCache();
+    private ExprNode object;
+    private final ExprNode[] arguments;
+
+    Invoke(Token paren, Token name, ExprNode object, ExprNode[] arguments) {
+      this.paren = paren;
+      this.name = name;
+      this.object = adopt(object);
+      this.arguments = arguments;
+      for (ExprNode argument : arguments) adopt(argument);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      frame.interpreter.enter(paren);
+      try {
+        return call(frame);
+      } catch (StackOverflowError error) {
+        throw Interpreter.stackOverflow(paren);
+      } finally {
+        frame.interpreter.exit();
+      }
+    }
+
+    private Object call(Frame frame) {
+      LoxInstance instance = receiver(frame);
+      LoxFunction method = cache.findMethod(instance, name.lexeme(), name.line);
+      if (method == null) {
+        // A field is called like any other value
+        Object callee = cache.get(instance, name.lexeme(), name.line);
+        return callValue(frame.interpreter, paren, callee, evaluate(this.arguments, frame));
+      }
+
+      if (method instanceof NodeFunction && this.arguments.length == method.arity()) {
+        return callDirect((NodeFunction)method, instance, this.arguments, frame);
+      }
+
+      return callMethod(method, instance, frame);
+    }
+
+    @Override
+    Object executeTail(Frame frame) {
+      frame.interpreter.enter(paren);
+      try {
+        return tailCall(frame);
+      } catch (StackOverflowError error) {
+        throw Interpreter.stackOverflow(paren);
+      } finally {
+        frame.interpreter.exit();
+      }
+    }
+
+    private Object tailCall(Frame frame) {
+      LoxInstance instance = receiver(frame);
+      LoxFunction method = cache.findMethod(instance, name.lexeme(), name.line);
+      if (method == null) {
+        Object callee = cache.get(instance, name.lexeme(), name.line);
+        if (callee instanceof NodeFunction && this.arguments.length == ((NodeFunction)callee).arity()
+            && !((NodeFunction)callee).isInitializer) {
+          NodeFunction function = (NodeFunction)callee;
+          return new NodeFunction.TailCall(function, frame(function, function.receiver, this.arguments, frame));
+        }
+        return new Return(callValue(frame.interpreter, paren, callee, evaluate(this.arguments, frame)));
+      }
+
+      if (method instanceof NodeFunction && this.arguments.length == method.arity() && !method.isInitializer) {
+        NodeFunction function = (NodeFunction)method;
+        return new NodeFunction.TailCall(function, frame(function, instance, this.arguments, frame));
+      }
+
+      return new Return(callMethod(method, instance, frame));
+    }
+
+    private LoxInstance receiver(Frame frame) {
+      Object object = this.object.execute(frame);
+      if (!(object instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only instances have properties.");
+      }
+      return (LoxInstance)object;
+    }
+
+    private Object callMethod(LoxFunction method, LoxInstance instance, Frame frame) {
+      Object[] arguments = evaluate(this.arguments, frame);
+      if (arguments.length != method.arity()) {
+        throw new RuntimeError(paren, "Expected " + method.arity() + " arguments but got " + arguments.length + ".");
+      }
+      return method.call(frame.interpreter, instance, arguments);
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == object) object = (ExprNode)replacement;
+      for (int i = 0; i < arguments.length; i++) {
+        if (child == arguments[i]) arguments[i] = (ExprNode)replacement;
+      }
+    }
+  }
+
+  // What Call and Invoke share
+
+  static Object callDirect(NodeFunction function, LoxInstance receiver, ExprNode[] arguments, Frame frame) {
+    return function.run(frame(function, receiver, arguments, frame), receiver);
+  }
+
+  static Frame frame(NodeFunction function, LoxInstance receiver, ExprNode[] arguments, Frame frame) {
+    Frame callee = function.frame(receiver, frame.interpreter);
+    for (int i = 0; i < arguments.length; i++) {
+      function.argument(callee, i, arguments[i].execute(frame));
+    }
+    return callee;
+  }
+
+  static Object callValue(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable)callee;
+    if (arguments.length != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+    }
+
+    try {
+      return function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw new RuntimeError(paren, error.getMessage());
+    }
+  }
+
+  static Object[] evaluate(ExprNode[] arguments, Frame frame) {
+    Object[] values = new Object[arguments.length];
+    for (int i = 0; i < arguments.length; i++) {
+      values[i] = arguments[i].execute(frame);
+    }
+    return values;
+  }
+
+  // Creates a closure each time a function declaration runs
+  static class Closure extends ExprNode {
+    private final NodeFunction.Root root;
+    // Where each upvalue comes from: a boxed slot of the current frame or one of its own upvalues
+    private final int[] captures;
+    private final boolean[] fromSlot;
+    private final boolean isInitializer;
+
+    Closure(NodeFunction.Root root, int[] captures, boolean[] fromSlot, boolean isInitializer) {
+      this.root = root;
+      this.captures = captures;
+      this.fromSlot = fromSlot;
+      this.isInitializer = isInitializer;
+    }
+
+    @Override
+    NodeFunction execute(Frame frame) {
+      Upvalue[] upvalues = new Upvalue[captures.length];
+      for (int i = 0; i < upvalues.length; i++) {
+        upvalues[i] = fromSlot[i] ? (Upvalue)frame.slots[captures[i]] : frame.upvalues[captures[i]];
+      }
+      return new NodeFunction(root, upvalues, isInitializer, null);
+    }
+  }
+
+  static class Get extends ExprNode {
+    private final Token name;
+    private final InlineCache cache = new InlineCache();
+    private ExprNode object;
+
+    Get(Token name, ExprNode object) {
+      this.name = name;
+      this.object = adopt(object);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object object = this.object.execute(frame);
+      if (object instanceof LoxInstance) {
+        return cache.get((LoxInstance)object, name.lexeme(), name.line);
+      }
+
+      throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == object) object = (ExprNode)replacement;
+    }
+  }
+
+  static class Set extends ExprNode {
+    private final Token name;
+    private final InlineCache cache = new InlineCache();
+    private ExprNode object;
+    private ExprNode value;
+
+    Set(Token name, ExprNode object, ExprNode value) {
+      this.name = name;
+      this.object = adopt(object);
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object object = this.object.execute(frame);
+
+      if (!(object instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only instances have fields.");
+      }
+
+      Object value = this.value.execute(frame);
+      cache.set((LoxInstance)object, name.lexeme(), name.line, value);
+      return value;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == object) object = (ExprNode)replacement;
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  static class Super extends ExprNode {
+    private final Token method;
+    private final int upvalue;
+    private ExprNode receiver;
+
+    Super(Token method, int upvalue, ExprNode receiver) {
+      this.method = method;
+      this.upvalue = upvalue;
+      this.receiver = adopt(receiver);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      LoxClass superclass = (LoxClass)frame.upvalues[upvalue].value;
+      LoxInstance object = (LoxInstance)receiver.execute(frame);
+
+      LoxFunction method = superclass.findMethod(this.method.lexeme());
+      if (method == null) {
+        throw new RuntimeError(this.method, "Undefined property '" + this.method.lexeme() + "'.");
+      }
+
+      return method.bind(object);
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == receiver) receiver = (ExprNode)replacement;
+    }
+  }
+
+}
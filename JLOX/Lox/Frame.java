@@ -0,0 +1,22 @@
+package JLOX.Lox;
+
+// One function call's locals for the NodeInterpreter. Every block of the function shares the same
+// flat array, the NodeInterpreter gives each local its own index up front
+class Frame {
+  // Marks a slot whose number is stored unboxed, in 'doubles' at the same index
+  static final Object DOUBLE = new Object();
+
+  final Object[] slots;
+  final double[] doubles;
+  final Upvalue[] upvalues;
+  // The Interpreter of the task making the call, for its call depth and for calling natives
+  final Interpreter interpreter;
+
+  Frame(int size, Upvalue[] upvalues, Interpreter interpreter) {
+    this.slots = new Object[size];
+    this.doubles = new double[size];
+    this.upvalues = upvalues;
+    this.interpreter = interpreter;
+  }
+
+}
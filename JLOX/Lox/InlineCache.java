@@ -0,0 +1,111 @@
+package JLOX.Lox;
+
+// What a property access site remembers about the shapes it has seen. For a get, each shape maps to
+// the field's offset or, if the name is a method, the method itself (a shape only belongs to one class).
+// For a set, to the offset and the shape the instance moves to if the field is new. Past LIMIT shapes
+// the site is megamorphic and just looks the name up
+//
+// Tasks can share a site, so each shape's entry is one immutable object: a task sees a whole entry or
+// none. Two tasks missing at once can overwrite each other's entry, which only costs another miss
+class InlineCache {
+    static final int LIMIT = 4;
+
+    private static final class Entry {
+        final Shape shape;
+        final int offset;
+        final LoxFunction method;
+        final Shape transition;
+
+        Entry(Shape shape, int offset, LoxFunction method, Shape transition) {
+            this.shape = shape;
+            this.offset = offset;
+            this.method = method;
+            this.transition = transition;
+        }
+    }
+
+    // Filled from the front, the first null is the end
+    private final Entry[] entries = new Entry[LIMIT];
+
+    Object get(LoxInstance instance, String name, int line) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) {
+                return entry.method != null ? entry.method.bind(instance) : instance.fields[entry.offset];
+            }
+        }
+
+        int offset = shape.offset(name);
+        if (offset >= 0) {
+            remember(shape, offset, null, null);
+            return instance.fields[offset];
+        }
+
+        LoxFunction method = shape.klass.findMethod(name);
+        if (method == null) {
+            throw undefined(name, line);
+        }
+        remember(shape, -1, method, null);
+        return method.bind(instance);
+    }
+
+    // For call sites: the method, left unbound since the caller passes the receiver itself,
+    // or null if the name is a field, which the caller then reads with get
+    LoxFunction findMethod(LoxInstance instance, String name, int line) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) return entry.method;
+        }
+
+        int offset = shape.offset(name);
+        if (offset >= 0) {
+            remember(shape, offset, null, null);
+            return null;
+        }
+
+        LoxFunction method = shape.klass.findMethod(name);
+        if (method == null) {
+            throw undefined(name, line);
+        }
+        remember(shape, -1, method, null);
+        return method;
+    }
+
+    void set(LoxInstance instance, String name, int line, Object value) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) {
+                if (entry.transition != null) instance.reshape(entry.transition);
+                instance.fields[entry.offset] = value;
+                return;
+            }
+        }
+
+        int offset = shape.offset(name);
+        Shape next = null;
+        if (offset < 0) {
+            next = shape.withField(name);
+            offset = shape.size();
+            instance.reshape(next);
+        }
+        remember(shape, offset, null, next);
+        instance.fields[offset] = value;
+    }
+
+    // 'line' is only for this, the bytecode VM keeps names as strings
+    private static RuntimeError undefined(String name, int line) {
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line), "Undefined property '" + name + "'.");
+    }
+
+    private void remember(Shape shape, int offset, LoxFunction method, Shape transition) {
+        for (int i = 0; i < LIMIT; i++) {
+            if (entries[i] == null) {
+                entries[i] = new Entry(shape, offset, method, transition);
+                return;
+            }
+        }
+    }
+}
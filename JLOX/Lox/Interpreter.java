@@ -2,20 +2,32 @@ package JLOX.Lox;
 
 import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
 import java.util.HashMap;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   // The class declares that it's a visitor
 
-  // Fixed reference to outermost global env
-  final Environment globals = new Environment();
-  // This env changes as we enter/exit local scopes
-  private Environment environment = globals; 
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  // Fixed reference to outermost global env, shared with the script's tasks
+  final Environment globals;
+  // This env changes as we enter/exit local scopes. Every task has its own
+  private Environment environment; 
+  // Compiles hot functions to JVM classes when running tiered, null otherwise
+  Jit jit;
+  // How many calls can be in progress at once, in every engine. Going past it is a Lox "Stack overflow."
+  // error, like running out of Java stack first is
+  static final int MAX_DEPTH = 1 << 16;
+  int maxDepth = MAX_DEPTH;
+  private int depth = 0;
+  // The script's context, where it prints and reports runtime errors
+  final LoxContext context;
+  // The bytecode VM running on this Interpreter's globals and call depth, made when it's first needed
+  private VM vm;
   
   // Constructor Method
-  Interpreter() {
+  Interpreter(LoxContext context) {
+    this.context = context;
+    this.globals = new Environment();
+    this.environment = globals;
 
     globals.define("clock", new LoxCallable() {
 
@@ -32,6 +44,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       public String toString() { return "<native fn>"; }
     });
 
+    Task.define(globals);
+    Channel.define(globals);
+  }
+
+  // For a task spawn() starts: the same script, with a current environment and call depth of its own
+  Interpreter(Interpreter parent) {
+    this.context = parent.context;
+    this.globals = parent.globals;
+    this.environment = globals;
+    this.jit = parent.jit;
+    this.maxDepth = parent.maxDepth;
+  }
+
+  VM vm() {
+    if (vm == null) vm = new VM(this);
+    return vm;
   }
 
   void interpret(List<Stmt> statements) {
@@ -40,22 +68,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      context.runtimeError(error);
     }
   }  
 
   @Override 
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass)environment.getAt(distance, "super"); 
+    // 'super' is declared outside the method, so the method always has it as an upvalue
+    LoxClass superclass = (LoxClass)environment.upvalues[expr.upvalue].value; 
 
-    // Currently in the super class and move back in distance to get 'this' in the child class?
-    LoxInstance object = (LoxInstance)environment.getAt(distance - 1,"this"); 
+    // The instance the current method was called on
+    LoxInstance object = (LoxInstance)visitThisExpr(expr.receiver); 
 
-    LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    LoxFunction method = superclass.findMethod(expr.method.lexeme());
 
     if (method == null) {
-      throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+      throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
     }
 
     // Binding 'this'
@@ -65,7 +93,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override 
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.captured, -1);
   }
 
   @Override 
@@ -77,7 +105,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     } 
 
     Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+    expr.cache.set((LoxInstance)object, expr.name.lexeme(), expr.name.line, value);
     return value;
 
   }
@@ -86,14 +114,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
     if (object instanceof LoxInstance) {
-      return ((LoxInstance)object).get(expr.name);
+      return expr.cache.get((LoxInstance)object, expr.name.lexeme(), expr.name.line);
     } 
 
     throw new RuntimeError(expr.name, "Only instances have properties.");
   }
 
   @Override 
-  public Void visitClassStmt(Stmt.Class stmt) {
+  public Object visitClassStmt(Stmt.Class stmt) {
     Object superclass = null;
     if (stmt.superclass != null) {
       superclass = evaluate(stmt.superclass);
@@ -102,57 +130,159 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme, null); 
+    // Methods that refer to the class by name capture its variable, so the box has to exist before they do.
+    // A local class holds its slot either way, 'super' comes right after it
+    boolean local = environment != globals;
+    int slot = local ? environment.count() : -1;
+    Upvalue cell = null;
+    if (stmt.captured) {
+      cell = new Upvalue(null);
+      environment.define(stmt.name.lexeme(), cell);
+    } else if (local) {
+      environment.define(stmt.name.lexeme(), null);
+    }
 
+    Environment previous = environment;
     if (stmt.superclass != null) {
-      environment = new Environment(environment);
-      environment.define("super", superclass);
-
+      // At the top level 'super' still needs a slot somewhere, the globals only go by name
+      if (!local) environment = new Environment((Upvalue[])null);
+      environment.define("super", new Upvalue(superclass));
     }
 
     Map<String, LoxFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
-      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-      methods.put(method.name.lexeme, function);
+      LoxFunction function = new LoxFunction(method, captureUpvalues(method), method.name.lexeme().equals("init"));
+      methods.put(method.name.lexeme(), function);
     }
 
-    LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods); 
+    LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass)superclass, methods); 
+
+    environment = previous;
+    if (local) environment.truncate(slot + 1);
 
-    if (superclass != null) {
-      environment = environment.enclosing;
+    // Nothing can run between the superclass lookup and here, so the name is only defined once the class exists
+    if (cell != null) {
+      cell.value = klass;
+    } else if (local) {
+      environment.assignAt(slot, klass);
+    } else {
+      environment.define(stmt.name.lexeme(), klass);
     }
-     
-    environment.assign(stmt.name, klass);
     return null;
 
   }
 
   @Override 
-  public Void visitReturnStmt(Stmt.Return stmt) {
+  public Object visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value instanceof Expr.Call && ((Expr.Call)stmt.value).tail) {
+      Expr.Call call = (Expr.Call)stmt.value;
+      enter(call.paren);
+      try {
+        return tailCall(call);
+      } catch (StackOverflowError error) {
+        throw stackOverflow(call.paren);
+      } finally {
+        exit();
+      }
+    }
+
     Object value = null;
     if (stmt.value != null) value = evaluate(stmt.value);
 
-    throw new Return(value);
+    return new Return(value);
   }
 
   @Override 
-  public Void visitFunctionStmt(Stmt.Function stmt) {
+  public Object visitFunctionStmt(Stmt.Function stmt) {
     // Stmt.Function is a syntax node (Compile time) and LoxFunction is the runtime rep of that function
-    LoxFunction function =  new LoxFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    if (stmt.captured) {
+      // A local function that calls itself captures its own variable, so the box has to exist first
+      Upvalue cell = new Upvalue(null);
+      environment.define(stmt.name.lexeme(), cell);
+      cell.value = new LoxFunction(stmt, captureUpvalues(stmt), false);
+      return null;
+    }
+
+    LoxFunction function =  new LoxFunction(stmt, captureUpvalues(stmt), false);
+    environment.define(stmt.name.lexeme(), function);
     return null;
   }
 
   @Override 
   public Object visitCallExpr(Expr.Call expr) {
-    // Expecting an identifier
-    Object callee = evaluate(expr.callee);
+    enter(expr.paren);
+    try {
+      if (expr.callee instanceof Expr.Get) {
+        return callMethod(expr, (Expr.Get)expr.callee);
+      }
+
+      // Expecting an identifier
+      return call(expr, evaluate(expr.callee));
+    } catch (StackOverflowError error) {
+      throw stackOverflow(expr.paren);
+    } finally {
+      exit();
+    }
+  }
+
+  // Every engine's call sites bracket the call with these. The tree-walker and the node engine
+  // recurse on the Java stack, so their call sites also turn a StackOverflowError into the Lox error
 
-    List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
+  void enter(Token paren) {
+    if (depth == maxDepth) throw stackOverflow(paren);
+    depth++;
+  }
+
+  void exit() {
+    depth--;
+  }
+
+  static RuntimeError stackOverflow(Token paren) {
+    return new RuntimeError(paren, "Stack overflow.");
+  }
+
+  private Object callMethod(Expr.Call expr, Expr.Get get) {
+    // obj.method() calls the method with 'obj' as 'this' directly, no bound copy of the method is made
+    LoxInstance instance = receiver(get);
+    LoxFunction method = get.cache.findMethod(instance, get.name.lexeme(), get.name.line);
+    if (method == null) {
+      // A field is called like any other value
+      return call(expr, get.cache.get(instance, get.name.lexeme(), get.name.line));
+    }
+
+    return callMethod(expr, method, instance);
+  }
+
+  private LoxInstance receiver(Expr.Get get) {
+    Object object = evaluate(get.object);
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(get.name, "Only instances have properties.");
+    }
+    return (LoxInstance)object;
+  }
+
+  private Object callMethod(Expr.Call expr, LoxFunction method, LoxInstance instance) {
+    if (jit == null && expr.arguments.size() == method.arity()) {
+      return callDirect(expr, method, instance);
     }
 
+    Object[] arguments = evaluateArguments(expr.arguments);
+    if (arguments.length != method.arity()) {
+      throw new RuntimeError(expr.paren, "Expected " + method.arity() + " arguments but got " + arguments.length + ".");
+    }
+
+    return method.call(this, instance, arguments);
+  }
+
+  private Object call(Expr.Call expr, Object callee) {
+    // The common case, a Lox function called with the right number of arguments. In tiered mode
+    // the call goes through LoxFunction.call() so the Jit gets to count it
+    if (jit == null && callee instanceof LoxFunction && expr.arguments.size() == ((LoxFunction)callee).arity()) {
+      return callDirect(expr, (LoxFunction)callee, ((LoxFunction)callee).receiver);
+    }
+
+    Object[] arguments = evaluateArguments(expr.arguments);
+
     // Callee is an instance of LoxFunction (Therefore also instance of the interface that LoxFunction implements)
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.paren, "Can only call functions and classes.");
@@ -162,29 +292,84 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     LoxCallable function = (LoxCallable)callee;
 
     // Checking if the argument list len matches the callable's arity
-    if (arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+    if (arguments.length != function.arity()) {
+      throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+    }
+
+    try {
+      return function.call(this, arguments);
+    } catch (NativeError error) {
+      // Natives don't know where they were called from
+      throw new RuntimeError(expr.paren, error.getMessage());
+    }
+  }
+
+  // Evaluates the arguments straight into the callee's new environment, so nothing is built just to pass them
+  private Object callDirect(Expr.Call expr, LoxFunction function, LoxInstance receiver) {
+    return function.run(this, frame(function, receiver, expr.arguments), receiver);
+  }
+
+  private Environment frame(LoxFunction function, LoxInstance receiver, List<Expr> arguments) {
+    Environment frame = function.environment(receiver);
+    for (int i = 0; i < arguments.size(); i++) {
+      function.argument(frame, i, evaluate(arguments.get(i)));
     }
+    return frame;
+  }
+
+  // 'return f()' doesn't call f from here. It sets up f's environment and hands it back to the function
+  // running this one, which runs f in its own place (LoxFunction.run()). Anything that isn't a plain Lox
+  // function call with the right arguments, like a class or a native, is just called
+  private Object tailCall(Expr.Call expr) {
+    Object callee;
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get)expr.callee;
+      LoxInstance instance = receiver(get);
+      LoxFunction method = get.cache.findMethod(instance, get.name.lexeme(), get.name.line);
+      if (method != null) {
+        if (method.isInitializer || expr.arguments.size() != method.arity()) {
+          return new Return(callMethod(expr, method, instance));
+        }
+        return tailCall(method, instance, expr.arguments);
+      }
+      // A field is called like any other value
+      callee = get.cache.get(instance, get.name.lexeme(), get.name.line);
+    } else {
+      callee = evaluate(expr.callee);
+    }
+
+    if (!(callee instanceof LoxFunction)) return new Return(call(expr, callee));
+
+    LoxFunction function = (LoxFunction)callee;
+    if (function.isInitializer || expr.arguments.size() != function.arity()) {
+      return new Return(call(expr, callee));
+    }
+    return tailCall(function, function.receiver, expr.arguments);
+  }
 
-    return function.call(this, arguments);
+  private Object tailCall(LoxFunction function, LoxInstance receiver, List<Expr> arguments) {
+    // In tiered mode the Jit counts it, and it may have to run compiled
+    if (jit != null) return function.tailCall(this, receiver, evaluateArguments(arguments));
+    return new LoxFunction.TailCall(function, frame(function, receiver, arguments));
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.While stmt) {
+  public Object visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
       // for FOR loops, the body contains the incrementer and the statements
-      execute(stmt.body);
+      Object completion = execute(stmt.body);
+      if (completion != null) return completion;
     }
 
     return null;
   }
 
   @Override 
-  public Void visitIfStmt(Stmt.If stmt) {
+  public Object visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.thenBranch);
+      return execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
-      execute(stmt.elseBranch);
+      return execute(stmt.elseBranch);
     } 
 
     return null;
@@ -205,41 +390,58 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
   
   @Override
-  public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
-    return null;
+  public Object visitBlockStmt(Stmt.Block stmt) {
+    // A top-level block gets an env for its locals. Any other block's go on the end of its function's env,
+    // and are dropped again once it's done
+    if (environment == globals) {
+      return executeBlock(stmt.statements, new Environment((Upvalue[])null));
+    }
+
+    int count = environment.count();
+    try {
+      for (Stmt statement : stmt.statements) {
+        Object completion = execute(statement);
+        if (completion != null) return completion;
+      }
+      return null;
+    } finally {
+      environment.truncate(count);
+    }
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    //environment.assign(expr.name, value);
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+    if (expr.depth >= 0) {
+      if (expr.captured) {
+        ((Upvalue)environment.getAt(expr.slot)).value = value;
+      } else {
+        environment.assignAt(expr.slot, value);
+      }
+    } else if (expr.upvalue >= 0) {
+      environment.upvalues[expr.upvalue].value = value;
     } else {
-      globals.assign(expr.name, value);
+      globals.assignGlobal(expr.global, expr.name.lexeme(), expr.name.line, value);
     }
 
     return value;
   }
 
   @Override 
-  public Void visitVarStmt(Stmt.Var stmt) {
+  public Object visitVarStmt(Stmt.Var stmt) {
     Object value = null;
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer); 
     }
 
-    environment.define(stmt.name.lexeme, value);
+    environment.define(stmt.name.lexeme(), stmt.captured ? new Upvalue(value) : value);
     return null;
   } 
 
   @Override 
   public Object visitVariableExpr(Expr.Variable expr) {
-    // return environment.get(expr.name);
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr.name, expr.depth, expr.slot, expr.upvalue, expr.captured, expr.global);
   }
 
   @Override
@@ -298,8 +500,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           return (double)left + (double)right;
         }
         // Concatanating strings
-        if (left instanceof String && right instanceof String) {
-          return (String)left + (String)right;
+        // Strings are a String or, once '+' has made them long enough, a Rope
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+          return Rope.concat((CharSequence)left, (CharSequence)right);
         }
         throw new RuntimeError(expr.operator, "Operants must be two numbers or two strings.");
       case SLASH: 
@@ -315,50 +518,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   } 
 
   @Override
-  public Void visitExpressionStmt(Stmt.Expression stmt) {
+  public Object visitExpressionStmt(Stmt.Expression stmt) {
     evaluate(stmt.expression);
     return null;
   } 
 
   @Override
-  public Void visitPrintStmt(Stmt.Print stmt) {
+  public Object visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    context.out.println(stringify(value));
     return null;
   }
 
   // Helper Methods
+  // (The value helpers are static so the NodeInterpreter's nodes follow exactly the same rules)
 
   private Object evaluate(Expr expr) {
     return expr.accept(this);
   } 
 
-  private boolean isTruthy(Object object) {
+  private Object[] evaluateArguments(List<Expr> arguments) {
+    Object[] values = new Object[arguments.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = evaluate(arguments.get(i));
+    }
+    return values;
+  }
+
+  static boolean isTruthy(Object object) {
     // Basically, for non-booleans -> everything that isn't null is TRUE
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
     return true;
   } 
 
-  private boolean isEqual(Object a, Object b) {
-    if (a == null && b == null) return true;
-    if (a == null) return false;
+  static boolean isEqual(Object a, Object b) {
+    // Literals and identifiers are interned, so equal strings are often the same object
+    if (a == b) return true;
+    if (a == null || b == null) return false;
 
+    // String.equals() doesn't know about Ropes
+    if (a instanceof CharSequence && b instanceof CharSequence) {
+      return a.toString().equals(b.toString());
+    }
     return a.equals(b);
 
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
+  static void checkNumberOperand(Token operator, Object operand) {
     if (operand instanceof Double) return;
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
-  private void checkNumberOperands(Token operator, Object left, Object right) {
+  static void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double) return;
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
     
     if (object instanceof Double) {
@@ -373,22 +590,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  // Statements complete with null, or with what a return statement ended the function with:
+  // a Return, or a LoxFunction.TailCall for 'return f()'
+  private Object execute(Stmt stmt) {
+    return stmt.accept(this);
   }
 
-  void executeBlock(List<Stmt> statements, Environment environment) {
+  Object executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
-    // Delete this later on
-    Map<Expr, Integer> NEWLOCALS = locals;
 
     try {
       // The current env is set to the NEW env made for the block
       this.environment = environment;
       
       for (Stmt statement : statements) {
-        execute(statement);
+        Object completion = execute(statement);
+        if (completion != null) return completion;
       }
+      return null;
     } finally {
       // Since we're done with the block statements, we set the env 
       // back to the global one
@@ -397,17 +616,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
-  }
-
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookUpVariable(Token name, int depth, int slot, int upvalue, boolean captured, int global) {
+    // Negative depth and upvalue mean the Resolver didn't find it in a local scope
+    if (depth >= 0) {
+      Object value = environment.getAt(slot);
+      return captured ? ((Upvalue)value).value : value;
+    } else if (upvalue >= 0) {
+      return environment.upvalues[upvalue].value;
     } else {
-      return globals.get(name);
+      return globals.getGlobal(global, name.lexeme(), name.line);
     }
   } 
 
+  private Upvalue[] captureUpvalues(Stmt.Function function) {
+    // A closure only keeps the variables it uses, not the whole chain of enclosing environments
+    Upvalue[] upvalues = new Upvalue[function.upvalueDepths.length];
+    for (int i = 0; i < upvalues.length; i++) {
+      int depth = function.upvalueDepths[i];
+      if (depth >= 0) {
+        upvalues[i] = (Upvalue)environment.getAt(function.upvalueSlots[i]);
+      } else {
+        upvalues[i] = environment.upvalues[function.upvalueSlots[i]];
+      }
+    }
+    return upvalues;
+  }
+
 }
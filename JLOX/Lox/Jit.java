@@ -0,0 +1,524 @@
+package JLOX.Lox;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+import static JLOX.Lox.ClassEmitter.*;
+
+// Tiered mode for the tree-walking Interpreter: once a function has been called 'threshold' times its
+// body is translated into a JVM class, which HotSpot then compiles and inlines like any other Java code.
+// Declarations using something the translation doesn't cover (local classes) just stay interpreted
+class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  static final int THRESHOLD = 1000;
+
+  private static final String FUNCTION = "JLOX/Lox/JitFunction";
+  private static final String UPVALUE = "JLOX/Lox/Upvalue";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;";
+  // Locals of the generated invoke(): this, the interpreter, the receiver, the argument array, then the Lox slots
+  private static final int FIRST_SLOT = 4;
+
+  private final int threshold;
+
+  // What the declaration being translated has so far
+  private ClassEmitter.Code code;
+  private List<Object> constants;
+  private List<Scope> scopes;
+
+  private static class Scope {
+    final int base;
+    int count = 0;
+
+    Scope(int base) {
+      this.base = base;
+    }
+  }
+
+  // Thrown for anything the translation doesn't handle, the function stays interpreted
+  private static class Unsupported extends RuntimeException {
+    Unsupported(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  Jit(int threshold) {
+    this.threshold = threshold;
+  }
+
+  JitFunction compiled(LoxFunction function) {
+    if (function.compiled != null) return function.compiled;
+
+    // Calls are counted per declaration, closures and bound methods are made all the time
+    Stmt.Function declaration = function.declaration;
+    JitFunction compiled = declaration.compiled;
+    if (compiled == null) {
+      if (++declaration.calls < threshold) return null;
+
+      compiled = compileOnce(declaration);
+      if (compiled == null) return null;
+    }
+
+    function.compiled = compiled.instantiate(function.upvalues);
+    return function.compiled;
+  }
+
+  // The translation keeps its state in the Jit, which all of a script's tasks share, so only one
+  // of them compiles at a time. Tasks calling the same function can get here together
+  private synchronized JitFunction compileOnce(Stmt.Function declaration) {
+    if (declaration.compiled != null || declaration.calls < threshold) return declaration.compiled;
+
+    declaration.compiled = compile(declaration);
+    if (declaration.compiled == null) {
+      // Don't try again
+      declaration.calls = Integer.MIN_VALUE;
+    }
+    return declaration.compiled;
+  }
+
+  private JitFunction compile(Stmt.Function declaration) {
+    ClassEmitter emitter = new ClassEmitter("JLOX/Lox/Jit$" + declaration.name.lexeme(), FUNCTION);
+
+    ClassEmitter.Code init = emitter.method("<init>", "()V");
+    init.load(0);
+    init.invoke(INVOKESPECIAL, FUNCTION, "<init>", "()V");
+    init.op(RETURN, 0);
+    init.end();
+
+    code = emitter.method("invoke", "(LJLOX/Lox/Interpreter;LJLOX/Lox/LoxInstance;[Ljava/lang/Object;)Ljava/lang/Object;");
+    constants = new ArrayList<>();
+    scopes = new ArrayList<>();
+    try {
+      // Same layout as the Resolver: 'this' for methods, then the parameters, then the body's locals
+      beginScope();
+      boolean[] captured = declaration.capturedParams;
+      int slot = 0;
+      if (captured.length > declaration.params.size()) {
+        code.load(2);
+        defineLocal(declareLocal(), captured[slot++]);
+      }
+      for (int i = 0; i < declaration.params.size(); i++) {
+        code.load(3);
+        code.push(i);
+        code.op(AALOAD, -1);
+        defineLocal(declareLocal(), captured[slot++]);
+      }
+
+      compile(declaration.body);
+      code.op(ACONST_NULL, 1);
+      code.op(ARETURN, -1);
+      code.end();
+    } catch (Unsupported | IllegalStateException error) {
+      return null;
+    } finally {
+      code = null;
+      scopes = null;
+    }
+
+    JitFunction function = define(emitter.toByteArray());
+    function.constants = constants.toArray();
+    function.arity = declaration.params.size();
+    constants = null;
+    return function;
+  }
+
+  private static JitFunction define(byte[] bytes) {
+    try {
+      // A hidden class in this package, so it can use everything package-private, and can be unloaded again
+      Class<?> generated = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+      return (JitFunction)generated.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  // Statements
+
+  private void compile(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement.accept(this);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    compile(stmt.statements);
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    throw new Unsupported("Local class.");
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    stmt.expression.accept(this);
+    code.op(POP, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    // Declared before the closure is made, a function that refers to itself captures this slot
+    int local = FIRST_SLOT + declareLocal();
+    if (stmt.captured) {
+      code.op(ACONST_NULL, 1);
+      code.invoke(INVOKESTATIC, FUNCTION, "box", "(Ljava/lang/Object;)LJLOX/Lox/Upvalue;");
+      code.store(local);
+    }
+
+    code.load(0);
+    code.push(constant(stmt));
+    code.push(stmt.upvalueDepths.length);
+    code.type(ANEWARRAY, UPVALUE);
+    for (int i = 0; i < stmt.upvalueDepths.length; i++) {
+      code.op(DUP, 1);
+      code.push(i);
+      if (stmt.upvalueDepths[i] >= 0) {
+        code.load(FIRST_SLOT + stmt.upvalueSlots[i]);
+        code.type(CHECKCAST, UPVALUE);
+      } else {
+        loadUpvalue(stmt.upvalueSlots[i]);
+      }
+      code.op(AASTORE, -3);
+    }
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "closure", "(I[LJLOX/Lox/Upvalue;)Ljava/lang/Object;");
+
+    if (stmt.captured) {
+      code.load(local);
+      code.type(CHECKCAST, UPVALUE);
+      code.op(SWAP, 0);
+      code.field(PUTFIELD, UPVALUE, "value", "Ljava/lang/Object;");
+    } else {
+      code.store(local);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    int elseBranch = code.newLabel();
+    int end = code.newLabel();
+
+    condition(stmt.condition);
+    code.jump(IFEQ, elseBranch);
+    stmt.thenBranch.accept(this);
+    code.jump(GOTO, end);
+    code.mark(elseBranch);
+    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    code.load(1);
+    stmt.expression.accept(this);
+    code.invoke(INVOKESTATIC, FUNCTION, "print", "(LJLOX/Lox/Interpreter;Ljava/lang/Object;)V");
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      stmt.value.accept(this);
+    } else {
+      code.op(ACONST_NULL, 1);
+    }
+    code.op(ARETURN, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      stmt.initializer.accept(this);
+    } else {
+      code.op(ACONST_NULL, 1);
+    }
+    defineLocal(declareLocal(), stmt.captured);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int start = code.newLabel();
+    int end = code.newLabel();
+
+    code.mark(start);
+    condition(stmt.condition);
+    code.jump(IFEQ, end);
+    stmt.body.accept(this);
+    code.jump(GOTO, start);
+    code.mark(end);
+    return null;
+  }
+
+  // Expressions, each one leaves its value on the operand stack
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    if (expr.depth < 0 && expr.upvalue < 0) {
+      code.load(0);
+      code.load(1);
+      expr.value.accept(this);
+      code.push(expr.global);
+      code.push(constant(expr.name));
+      code.invoke(INVOKEVIRTUAL, FUNCTION, "setGlobal", "(LJLOX/Lox/Interpreter;Ljava/lang/Object;II)Ljava/lang/Object;");
+      return null;
+    }
+
+    expr.value.accept(this);
+    code.op(DUP, 1);
+    if (expr.depth >= 0) {
+      int local = FIRST_SLOT + expr.slot;
+      if (!expr.captured) {
+        code.store(local);
+        return null;
+      }
+      code.load(local);
+      code.type(CHECKCAST, UPVALUE);
+    } else {
+      loadUpvalue(expr.upvalue);
+    }
+    code.op(SWAP, 0);
+    code.field(PUTFIELD, UPVALUE, "value", "Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    String helper;
+    switch (expr.operator.type) {
+      case BANG_EQUAL: equality(expr, "notEqual"); return null;
+      case EQUAL_EQUAL: equality(expr, "equal"); return null;
+      case GREATER: helper = "greater"; break;
+      case GREATER_EQUAL: helper = "greaterEqual"; break;
+      case LESS: helper = "less"; break;
+      case LESS_EQUAL: helper = "lessEqual"; break;
+      case MINUS: helper = "subtract"; break;
+      case PLUS: helper = "add"; break;
+      case SLASH: helper = "divide"; break;
+      case STAR: helper = "multiply"; break;
+      default: throw new Unsupported("Binary operator " + expr.operator.lexeme() + ".");
+    }
+
+    code.load(0);
+    expr.left.accept(this);
+    expr.right.accept(this);
+    code.push(constant(expr.operator));
+    code.invoke(INVOKEVIRTUAL, FUNCTION, helper, BINARY);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    code.load(0);
+    code.load(1);
+
+    // obj.method() keeps 'obj' under the callee, for callMethod to pass as 'this'
+    boolean invoke = expr.callee instanceof Expr.Get;
+    if (invoke) {
+      Expr.Get get = (Expr.Get)expr.callee;
+      get.object.accept(this);
+      code.op(DUP, 1);
+      code.load(0);
+      code.op(SWAP, 0);
+      code.push(constant(get.name));
+      code.push(constant(get.cache));
+      code.invoke(INVOKEVIRTUAL, FUNCTION, "method", "(Ljava/lang/Object;II)Ljava/lang/Object;");
+    } else {
+      expr.callee.accept(this);
+    }
+
+    code.push(expr.arguments.size());
+    code.type(ANEWARRAY, OBJECT);
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      code.op(DUP, 1);
+      code.push(i);
+      expr.arguments.get(i).accept(this);
+      code.op(AASTORE, -3);
+    }
+
+    code.push(constant(expr.paren));
+    // 'return f()' returns f for LoxFunction to run in this one's place
+    String prefix = expr.tail ? "tail" : "call";
+    if (invoke) {
+      code.invoke(INVOKEVIRTUAL, FUNCTION, prefix + "Method", "(LJLOX/Lox/Interpreter;Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;I)Ljava/lang/Object;");
+    } else {
+      code.invoke(INVOKEVIRTUAL, FUNCTION, prefix + "Value", "(LJLOX/Lox/Interpreter;Ljava/lang/Object;[Ljava/lang/Object;I)Ljava/lang/Object;");
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    code.load(0);
+    expr.object.accept(this);
+    code.push(constant(expr.name));
+    code.push(constant(expr.cache));
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "get", "(Ljava/lang/Object;II)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    expr.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      code.op(ACONST_NULL, 1);
+    } else if (expr.value instanceof Boolean) {
+      code.field(GETSTATIC, "java/lang/Boolean", (Boolean)expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+    } else {
+      // Numbers and strings come boxed out of the constants, nothing is allocated
+      code.load(0);
+      code.field(GETFIELD, FUNCTION, "constants", "[Ljava/lang/Object;");
+      code.push(constant(expr.value));
+      code.op(AALOAD, -1);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    int end = code.newLabel();
+
+    // The left operand is the result if it decides the outcome, so keep a copy for that
+    expr.left.accept(this);
+    code.op(DUP, 1);
+    code.invoke(INVOKESTATIC, "JLOX/Lox/Interpreter", "isTruthy", "(Ljava/lang/Object;)Z");
+    code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+    code.op(POP, -1);
+    expr.right.accept(this);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    code.load(0);
+    code.load(0);
+    expr.object.accept(this);
+    code.push(constant(expr.name));
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "checkInstance", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+    expr.value.accept(this);
+    code.push(constant(expr.name));
+    code.push(constant(expr.cache));
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "set", "(Ljava/lang/Object;Ljava/lang/Object;II)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    code.load(0);
+    visitThisExpr(expr.receiver);
+    code.push(constant(expr.method));
+    code.push(expr.upvalue);
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "getSuper", "(Ljava/lang/Object;II)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    loadVariable(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.captured, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.BANG) {
+      expr.right.accept(this);
+      code.invoke(INVOKESTATIC, FUNCTION, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+      return null;
+    }
+
+    code.load(0);
+    expr.right.accept(this);
+    code.push(constant(expr.operator));
+    code.invoke(INVOKEVIRTUAL, FUNCTION, "negate", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    loadVariable(expr.name, expr.depth, expr.slot, expr.upvalue, expr.captured, expr.global);
+    return null;
+  }
+
+  // Helper Methods
+
+  private void loadVariable(Token name, int depth, int slot, int upvalue, boolean captured, int global) {
+    if (depth >= 0) {
+      code.load(FIRST_SLOT + slot);
+      if (captured) unbox();
+    } else if (upvalue >= 0) {
+      loadUpvalue(upvalue);
+      unbox();
+    } else {
+      code.load(0);
+      code.load(1);
+      code.push(global);
+      code.push(constant(name));
+      code.invoke(INVOKEVIRTUAL, FUNCTION, "getGlobal", "(LJLOX/Lox/Interpreter;II)Ljava/lang/Object;");
+    }
+  }
+
+  private void loadUpvalue(int index) {
+    code.load(0);
+    code.field(GETFIELD, FUNCTION, "upvalues", "[LJLOX/Lox/Upvalue;");
+    code.push(index);
+    code.op(AALOAD, -1);
+  }
+
+  private void unbox() {
+    code.type(CHECKCAST, UPVALUE);
+    code.field(GETFIELD, UPVALUE, "value", "Ljava/lang/Object;");
+  }
+
+  private void defineLocal(int slot, boolean captured) {
+    if (captured) {
+      code.invoke(INVOKESTATIC, FUNCTION, "box", "(Ljava/lang/Object;)LJLOX/Lox/Upvalue;");
+    }
+    code.store(FIRST_SLOT + slot);
+  }
+
+  private void equality(Expr.Binary expr, String helper) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    code.invoke(INVOKESTATIC, FUNCTION, helper, "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+  }
+
+  private void condition(Expr condition) {
+    condition.accept(this);
+    code.invoke(INVOKESTATIC, "JLOX/Lox/Interpreter", "isTruthy", "(Ljava/lang/Object;)Z");
+  }
+
+  private int constant(Object value) {
+    int index = constants.indexOf(value);
+    if (index >= 0) return index;
+    constants.add(value);
+    return constants.size() - 1;
+  }
+
+  private void beginScope() {
+    Scope enclosing = scopes.isEmpty() ? null : scopes.get(scopes.size() - 1);
+    scopes.add(new Scope(enclosing == null ? 0 : enclosing.base + enclosing.count));
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private int declareLocal() {
+    Scope scope = scopes.get(scopes.size() - 1);
+    return scope.base + scope.count++;
+  }
+
+}
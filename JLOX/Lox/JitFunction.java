@@ -0,0 +1,244 @@
+package JLOX.Lox;
+
+import java.util.List;
+
+// What the classes the Jit generates extend. The generated class only has the function's body as its
+// invoke() method, everything that isn't a few instructions is one of the helpers below
+abstract class JitFunction implements LoxCallable, Cloneable {
+  // Literals, names and declarations the body refers to, by index
+  Object[] constants;
+  Upvalue[] upvalues;
+  int arity;
+
+  // The Jit makes one instance per declaration, every closure gets a copy of it with its own upvalues
+  JitFunction instantiate(Upvalue[] upvalues) {
+    try {
+      JitFunction function = (JitFunction)clone();
+      function.upvalues = upvalues;
+      return function;
+    } catch (CloneNotSupportedException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  // The body. 'receiver' is 'this' for methods, which LoxFunction always calls with one
+  abstract Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments);
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return call(interpreter, arguments.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    Object result = invoke(interpreter, null, arguments);
+    if (result instanceof LoxFunction.TailCall) result = ((LoxFunction.TailCall)result).run(interpreter);
+    return result;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  // Helpers for the generated code. Token arguments are constant indexes,
+  // they're only looked up when there's an error to report
+
+  static void print(Interpreter interpreter, Object value) {
+    interpreter.context.out.println(Interpreter.stringify(value));
+  }
+
+  static Upvalue box(Object value) {
+    return new Upvalue(value);
+  }
+
+  static Object not(Object value) {
+    return !Interpreter.isTruthy(value);
+  }
+
+  static Object equal(Object left, Object right) {
+    return Interpreter.isEqual(left, right);
+  }
+
+  static Object notEqual(Object left, Object right) {
+    return !Interpreter.isEqual(left, right);
+  }
+
+  Object negate(Object operand, int operator) {
+    Interpreter.checkNumberOperand((Token)constants[operator], operand);
+    return -(double)operand;
+  }
+
+  Object add(Object left, Object right, int operator) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double)left + (double)right;
+    }
+    if (left instanceof CharSequence && right instanceof CharSequence) {
+      return Rope.concat((CharSequence)left, (CharSequence)right);
+    }
+    throw new RuntimeError((Token)constants[operator], "Operants must be two numbers or two strings.");
+  }
+
+  Object subtract(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left - (double)right;
+  }
+
+  Object multiply(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left * (double)right;
+  }
+
+  Object divide(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left / (double)right;
+  }
+
+  Object greater(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left > (double)right;
+  }
+
+  Object greaterEqual(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left >= (double)right;
+  }
+
+  Object less(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left < (double)right;
+  }
+
+  Object lessEqual(Object left, Object right, int operator) {
+    Interpreter.checkNumberOperands((Token)constants[operator], left, right);
+    return (double)left <= (double)right;
+  }
+
+  Object getGlobal(Interpreter interpreter, int slot, int name) {
+    Token token = (Token)constants[name];
+    return interpreter.globals.getGlobal(slot, token.lexeme(), token.line);
+  }
+
+  Object setGlobal(Interpreter interpreter, Object value, int slot, int name) {
+    Token token = (Token)constants[name];
+    interpreter.globals.assignGlobal(slot, token.lexeme(), token.line, value);
+    return value;
+  }
+
+  Object callValue(Interpreter interpreter, Object callee, Object[] arguments, int paren) {
+    return callMethod(interpreter, null, callee, arguments, paren);
+  }
+
+  // The callee of obj.method(): the method itself, unbound, or if the name is a field, its value
+  Object method(Object object, int name, int cache) {
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError((Token)constants[name], "Only instances have properties.");
+    }
+
+    InlineCache sites = (InlineCache)constants[cache];
+    Token token = (Token)constants[name];
+    LoxFunction method = sites.findMethod((LoxInstance)object, token.lexeme(), token.line);
+    return method != null ? method : sites.get((LoxInstance)object, token.lexeme(), token.line);
+  }
+
+  // 'object' is null for calls that aren't obj.method()
+  Object callMethod(Interpreter interpreter, Object object, Object callee, Object[] arguments, int paren) {
+    Token token = (Token)constants[paren];
+    interpreter.enter(token);
+    try {
+      return call(interpreter, object, callee, arguments, token);
+    } catch (StackOverflowError error) {
+      throw Interpreter.stackOverflow(token);
+    } finally {
+      interpreter.exit();
+    }
+  }
+
+  // 'return f()'. A Lox function isn't called from here, it's handed back as a LoxFunction.TailCall for
+  // whoever called this one to run in its place. Anything else is just called
+  Object tailValue(Interpreter interpreter, Object callee, Object[] arguments, int paren) {
+    return tailMethod(interpreter, null, callee, arguments, paren);
+  }
+
+  Object tailMethod(Interpreter interpreter, Object object, Object callee, Object[] arguments, int paren) {
+    if (callee instanceof LoxFunction) {
+      LoxFunction function = (LoxFunction)callee;
+      LoxInstance receiver = function.receiver;
+      // An unbound method from method() above, see call()
+      if (object != null && receiver == null
+          && function.declaration.capturedParams.length > function.declaration.params.size()) {
+        receiver = (LoxInstance)object;
+      }
+      if (!function.isInitializer && arguments.length == function.arity()) {
+        return function.tailCall(interpreter, receiver, arguments);
+      }
+    }
+    return callMethod(interpreter, object, callee, arguments, paren);
+  }
+
+  private static Object call(Interpreter interpreter, Object object, Object callee, Object[] arguments, Token paren) {
+    // Unbound methods never leave their class's table, so one here came from method() above.
+    // Anything else was a field's value, called like any other
+    if (object != null && callee instanceof LoxFunction) {
+      LoxFunction function = (LoxFunction)callee;
+      boolean isMethod = function.declaration.capturedParams.length > function.declaration.params.size();
+      if (isMethod && function.receiver == null) {
+        if (arguments.length != function.arity()) {
+          throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+        }
+        return function.call(interpreter, (LoxInstance)object, arguments);
+      }
+    }
+
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable)callee;
+    if (arguments.length != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+    }
+
+    try {
+      return function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw new RuntimeError(paren, error.getMessage());
+    }
+  }
+
+  Object get(Object object, int name, int cache) {
+    if (object instanceof LoxInstance) {
+      Token token = (Token)constants[name];
+      return ((InlineCache)constants[cache]).get((LoxInstance)object, token.lexeme(), token.line);
+    }
+    throw new RuntimeError((Token)constants[name], "Only instances have properties.");
+  }
+
+  Object checkInstance(Object object, int name) {
+    // Checked before the value is evaluated, like the Interpreter does
+    if (object instanceof LoxInstance) return object;
+    throw new RuntimeError((Token)constants[name], "Only instances have fields.");
+  }
+
+  Object set(Object object, Object value, int name, int cache) {
+    Token token = (Token)constants[name];
+    ((InlineCache)constants[cache]).set((LoxInstance)object, token.lexeme(), token.line, value);
+    return value;
+  }
+
+  Object getSuper(Object instance, int method, int upvalue) {
+    LoxClass superclass = (LoxClass)upvalues[upvalue].value;
+    Token name = (Token)constants[method];
+    LoxFunction function = superclass.findMethod(name.lexeme());
+    if (function == null) {
+      throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+    return function.bind((LoxInstance)instance);
+  }
+
+  Object closure(int declaration, Upvalue[] upvalues) {
+    // A nested function starts out interpreted, it gets compiled on its own once it's hot
+    return new LoxFunction((Stmt.Function)constants[declaration], upvalues, false);
+  }
+
+}
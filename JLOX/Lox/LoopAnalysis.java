@@ -0,0 +1,278 @@
+package JLOX.Lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+// What the Optimizer needs to know before it moves anything out of a loop: which local 'var' each
+// variable refers to, which of those locals always hold a number, and what each loop assigns.
+// Only locals declared with 'var' are tracked. Parameters, globals and 'this' could hold anything
+class LoopAnalysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Variable and Assign nodes, and the declaration they refer to
+  final Map<Expr, Stmt.Var> declarations = new HashMap<>();
+  // Locals that only ever hold numbers, so arithmetic on them can't fail
+  final Set<Stmt.Var> numbers = new HashSet<>();
+  // Every local a loop assigns or declares, nested loops included
+  final Map<Stmt.While, Set<Stmt.Var>> assigned = new HashMap<>();
+
+  // Null values hide an outer 'var' behind a parameter, function or class of the same name
+  private final Stack<Map<String, Stmt.Var>> scopes = new Stack<>();
+  private Stack<Stmt.While> loops = new Stack<>();
+  // The initializer and every value assigned to each local
+  private final Map<Stmt.Var, List<Expr>> values = new HashMap<>();
+
+  LoopAnalysis(List<Stmt> statements) {
+    analyze(statements);
+
+    // Start from every initialized local and rule out the ones that are ever given something that
+    // might not be a number, until nothing changes. x = x + 1 stays a number as long as x does
+    for (Map.Entry<Stmt.Var, List<Expr>> entry : values.entrySet()) {
+      if (entry.getKey().initializer != null) numbers.add(entry.getKey());
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Map.Entry<Stmt.Var, List<Expr>> entry : values.entrySet()) {
+        if (!numbers.contains(entry.getKey())) continue;
+        for (Expr value : entry.getValue()) {
+          if (!isNumber(value)) {
+            numbers.remove(entry.getKey());
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  // Whether the expression can only produce a number, if it produces anything at all
+  boolean isNumber(Expr expr) {
+    if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+    if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping)expr).expression);
+    if (expr instanceof Expr.Variable) return numbers.contains(declarations.get(expr));
+    if (expr instanceof Expr.Assign) return isNumber(((Expr.Assign)expr).value);
+    if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary)expr;
+      switch (binary.operator.type) {
+        case MINUS: case STAR: case SLASH: return true;
+        case PLUS: return isNumber(binary.left) && isNumber(binary.right);
+        default: return false;
+      }
+    }
+    return false;
+  }
+
+  private void analyze(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      analyze(statement);
+    }
+  }
+
+  private void analyze(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void analyze(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void hide(String name) {
+    if (!scopes.isEmpty()) scopes.peek().put(name, null);
+  }
+
+  private Stmt.Var lookUp(String name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (scopes.get(i).containsKey(name)) return scopes.get(i).get(name);
+    }
+    return null;
+  }
+
+  private void assign(Stmt.Var declaration) {
+    for (Stmt.While loop : loops) {
+      assigned.get(loop).add(declaration);
+    }
+  }
+
+  // Statements
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.push(new HashMap<>());
+    analyze(stmt.statements);
+    scopes.pop();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    hide(stmt.name.lexeme());
+    if (stmt.superclass != null) analyze(stmt.superclass);
+    for (Stmt.Function method : stmt.methods) {
+      analyzeFunction(method);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    analyze(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    hide(stmt.name.lexeme());
+    analyzeFunction(stmt);
+    return null;
+  }
+
+  private void analyzeFunction(Stmt.Function function) {
+    // The body runs whenever the function is called, not as part of any loop around the declaration
+    Stack<Stmt.While> enclosingLoops = loops;
+    loops = new Stack<>();
+
+    scopes.push(new HashMap<>());
+    for (Token param : function.params) {
+      hide(param.lexeme());
+    }
+    analyze(function.body);
+    scopes.pop();
+
+    loops = enclosingLoops;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    analyze(stmt.condition);
+    analyze(stmt.thenBranch);
+    if (stmt.elseBranch != null) analyze(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    analyze(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) analyze(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) analyze(stmt.initializer);
+    // Top-level variables are globals
+    if (scopes.isEmpty()) return null;
+
+    scopes.peek().put(stmt.name.lexeme(), stmt);
+    List<Expr> assignments = new ArrayList<>();
+    if (stmt.initializer != null) assignments.add(stmt.initializer);
+    values.put(stmt, assignments);
+    // Declared in a loop, it starts over every time round
+    assign(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    assigned.put(stmt, new HashSet<>());
+    loops.push(stmt);
+    analyze(stmt.condition);
+    analyze(stmt.body);
+    loops.pop();
+    return null;
+  }
+
+  // Expressions
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    analyze(expr.value);
+    Stmt.Var declaration = lookUp(expr.name.lexeme());
+    if (declaration != null) {
+      declarations.put(expr, declaration);
+      values.get(declaration).add(expr.value);
+      assign(declaration);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    analyze(expr.left);
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    analyze(expr.callee);
+    for (Expr argument : expr.arguments) {
+      analyze(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    analyze(expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    analyze(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    analyze(expr.left);
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    analyze(expr.object);
+    analyze(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    Stmt.Var declaration = lookUp(expr.name.lexeme());
+    if (declaration != null) declarations.put(expr, declaration);
+    return null;
+  }
+
+}
@@ -3,43 +3,86 @@ package JLOX.Lox;
 import java.io.BufferedReader; 
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.Buffer;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  // Holds the options, every script gets a LoxContext of its own from it
+  private static final LoxEngine engine = new LoxEngine();
+  // Run scripts sent to this address instead, or send the script to a server that does
+  private static String serve = null;
+  private static String connect = null;
+  private static int maxSource = LoxServer.MAX_SOURCE;
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      // Exit code 64 - command used incorrectly/wrong parameters (to main) 
-      System.exit(64);
-    } else if (args.length == 1) {
+    // Options come before the script, eg. jlox --engine=nodes script.lox
+    int first = 0;
+    while (first < args.length && args[first].startsWith("--")) {
+      if (!parseOption(args[first])) usage();
+      first++;
+    }
+    if (args.length - first > 1) {
+      usage();
+    } else if (connect != null) {
+      // The server uses its own options, only the script is sent
+      System.exit(LoxClient.run(connect, args.length - first == 1 ? args[first] : null));
+    } else if (serve != null) {
+      if (args.length - first == 1) usage();
+      LoxServer.serve(serve, engine, maxSource);
+    } else if (args.length - first == 1) {
       // Run the file for interpreting
-      runFile(args[0]);
+      runFile(args[first]);
     } else {
       // Run interactively evaluating one line at a time of user input
       runPrompt();
     }
   }
 
-  private static void runFile(String path) throws IOException {
+  private static boolean parseOption(String option) {
+    if (option.startsWith("--serve=")) {
+      serve = option.substring("--serve=".length());
+      return true;
+    }
+    if (option.startsWith("--connect=")) {
+      connect = option.substring("--connect=".length());
+      return true;
+    }
+    if (option.startsWith("--max-source=")) {
+      try {
+        maxSource = Integer.parseInt(option.substring("--max-source=".length()));
+      } catch (NumberFormatException error) {
+        return false;
+      }
+      return maxSource >= 0;
+    }
+    return engine.option(option);
+  }
+
+  private static void usage() {
+    System.out.println("Usage: jlox [--engine=tree|nodes|vm|jit] [--max-depth=calls] [--stream] [--cache=dir] [script]");
+    System.out.println("       jlox [options] [--max-source=bytes] --serve=socket|port");
+    System.out.println("       jlox --connect=socket|port [script]");
+    // Exit code 64 - command used incorrectly/wrong parameters (to main) 
+    System.exit(64);
+  }
 
-    // Contents of file read into a byte array
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
+  private static void runFile(String path) throws IOException {
+    int code = engine.run(read(path), System.out, System.err);
+    if (code != 0) System.exit(code);
+  }
 
-    // Byte array -> decode to a string (encode was string -> byte)
-    run(new String(bytes, Charset.defaultCharset()));
-    if (hadError) System.exit(65);
-    if (hadRuntimeError) System.exit(70);
+  static ByteBuffer read(String path) throws IOException {
+    // The file is mapped instead of read into a byte array. Source scans it from there when it can,
+    // without ever making one big String of it
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
   }
 
   private static void runPrompt() throws IOException {
+    LoxContext context = engine.newContext(System.out, System.err);
 
     // reads byte and decodes to characters
     InputStreamReader input = new InputStreamReader(System.in);
@@ -52,56 +95,8 @@ public class Lox {
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      run(line);
-      hadError = false;
+      context.runLine(line);
     }
   }
 
-  private static void run(String source) {
-    
-    // Custom scanner
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens);
-    
-    // Returns syntax tree nodes
-    List<Stmt> statements = parser.parse();
-
-    // If there was a parse error
-    if (hadError) return; 
-
-    // Semantic Analysis
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements); 
-
-    // Stop if there was a resolution error
-    if (hadError) return;
-    
-    interpreter.interpret(statements);
-
-  }
-
-  static void error(int line, String message) {
-    report(line, "", message);
-  }
-
-  private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
-  }
-    
-  static void error(Token token, String message){
-    if (token.type == TokenType.EOF){
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
-  }
-
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
-  }
-
 }
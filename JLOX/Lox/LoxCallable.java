@@ -1,9 +1,16 @@
 package JLOX.Lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // What the interpreters call with, so no list has to be built per call. Lox functions and
+    // classes take the array as it is, natives just keep implementing the list form
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
     
 }
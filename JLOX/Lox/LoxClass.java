@@ -1,17 +1,30 @@
 package JLOX.Lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
+    // Where every instance's shape starts out, and how many fields instances have grown to so far
+    final Shape rootShape = new Shape(this);
+    int fieldCount = 0;
+    
+    // The class's own methods plus every inherited one it doesn't override, flattened when the
+    // class is defined so a lookup never has to walk up the hierarchy
     private final Map<String, LoxFunction> methods;
+    final LoxFunction initializer;
     
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.superclass = superclass;
         this.name = name;
-        this.methods = methods;
+
+        Map<String, LoxFunction> table = new HashMap<>();
+        if (superclass != null) table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = table;
+        this.initializer = table.get("init");
     } 
 
     @Override 
@@ -21,33 +34,28 @@ class LoxClass implements LoxCallable {
 
     @Override 
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call(interpreter, arguments.toArray());
+    }
+
+    @Override 
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            // Since we bind the init() method before we call it, it has access to 'this' inside its body. 
-            initializer.bind(instance).call(interpreter, arguments);
+            // init() is called with the new instance as 'this', so it has access to 'this' inside its body. 
+            initializer.call(interpreter, instance, arguments);
         }
         return instance;
     } 
 
     @Override 
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
 
     } 
 
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-
-        return null;
+        return methods.get(name);
     }
 
 }
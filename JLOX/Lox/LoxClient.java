@@ -0,0 +1,47 @@
+package JLOX.Lox;
+
+import static JLOX.Lox.LoxServer.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+// Has a LoxServer run a script, or the source on stdin when there's no script, and prints what it
+// prints. The exit code is the script's
+class LoxClient {
+
+  static int run(String address, String path) throws IOException {
+    try (SocketChannel server = SocketChannel.open(address(address))) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(server)));
+      if (path != null) {
+        // The server's working directory needn't be ours
+        out.write(("RUN " + Paths.get(path).toAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+      } else {
+        byte[] source = System.in.readAllBytes();
+        out.write(("EVAL " + source.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(source);
+      }
+      out.flush();
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(server)));
+      for (;;) {
+        byte kind = in.readByte();
+        if (kind == EXIT) return in.readInt();
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        PrintStream stream = kind == STDERR ? System.err : System.out;
+        stream.write(bytes);
+        stream.flush();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,244 @@
+package JLOX.Lox;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Everything one running script has to itself: its globals and the interpreters working on them,
+// whether it's had an error, and where it prints. Scripts run in the same context see each other's
+// globals, like the lines typed at the prompt do. Only one thread may run scripts in a context at a
+// time, the tasks a script spawns run on others
+public class LoxContext {
+  private final LoxEngine engine;
+  final Interpreter interpreter;
+  private final NodeInterpreter nodeInterpreter;
+  // Where print statements go, and compile and runtime errors
+  final PrintStream out;
+  final PrintStream err;
+  boolean hadError = false;
+  boolean hadRuntimeError = false;
+  // The tasks spawned so far that haven't been waited for. Any task can add to it
+  final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+  // How many of the threads working for the script can still get something done: the one running it,
+  // and its tasks that aren't waiting on a channel or a join. Once it's 0, nothing will ever wake the
+  // ones that are. Only changed holding the context's lock
+  private int running = 0;
+
+  LoxContext(LoxEngine engine, PrintStream out, PrintStream err) {
+    this.engine = engine;
+    this.out = out;
+    this.err = err;
+    interpreter = new Interpreter(this);
+    interpreter.maxDepth = engine.maxDepth;
+    if (engine.backend == LoxEngine.Backend.JIT) interpreter.jit = new Jit(Jit.THRESHOLD);
+    nodeInterpreter = new NodeInterpreter(interpreter);
+  }
+
+  // Runs a whole script. Returns what jlox exits with: 65 if it didn't compile, 70 if it failed
+  // while running, 0 otherwise
+  public int run(ByteBuffer bytes) {
+    hadError = false;
+    hadRuntimeError = false;
+
+    resumed(1);
+    try {
+      // Streaming runs statements before the whole script is compiled, so there'd be nothing to cache
+      if (engine.cache != null && !engine.streaming) {
+        runCached(bytes);
+      } else if (engine.streaming) {
+        runStreaming(Source.of(bytes, Charset.defaultCharset()));
+      } else {
+        run(Source.of(bytes, Charset.defaultCharset()));
+      }
+    } finally {
+      paused();
+    }
+    finishTasks(true);
+    if (hadError) return 65;
+    if (hadRuntimeError) return 70;
+    return 0;
+  }
+
+  // One line typed at the prompt. A mistake in it doesn't stop the next one from running
+  void runLine(String line) {
+    resumed(1);
+    try {
+      run(line);
+    } finally {
+      paused();
+    }
+    // A task can be left running for a later line to talk to, so the prompt doesn't wait for them
+    finishTasks(false);
+    hadError = false;
+  }
+
+  private void run(CharSequence source) {
+    List<Stmt> statements = parse(source);
+    if (statements != null) execute(statements);
+  }
+
+  // A script that was run before is read back already resolved and optimized, as long as its source
+  // hasn't changed. Otherwise it's compiled as usual and saved for next time
+  private void runCached(ByteBuffer bytes) {
+    ScriptCache cache = engine.cache;
+    String key = cache.key(bytes);
+    List<Stmt> statements = cache.load(key, interpreter.globals);
+
+    if (statements == null) {
+      statements = parse(Source.of(bytes, Charset.defaultCharset()));
+      if (statements == null) return;
+      statements = compile(statements);
+      if (statements == null) return;
+      cache.save(key, statements);
+    }
+
+    interpret(statements);
+  }
+
+  // Null if there was a syntax error
+  private List<Stmt> parse(CharSequence source) {
+
+    // Custom scanner
+    Scanner scanner = new Scanner(source, this);
+    List<Token> tokens = scanner.scanTokens();
+
+    Parser parser = new Parser(tokens.iterator(), this);
+
+    // Returns syntax tree nodes
+    List<Stmt> statements = parser.parse();
+
+    // If there was a parse error
+    if (hadError) return null;
+
+    return statements;
+  }
+
+  // Scans, parses and runs one top-level declaration at a time, so a long script starts running right
+  // away and only what's still reachable from the globals stays in memory. Unlike run(), anything before
+  // an error has already run by the time it's found. Nothing runs after it, but the rest is still
+  // parsed and resolved so every error gets reported
+  private void runStreaming(CharSequence source) {
+    Parser parser = new Parser(new Scanner(source, this), this);
+
+    while (parser.hasNext()) {
+      Stmt statement = parser.next();
+      // A syntax error, already reported
+      if (statement == null) continue;
+
+      List<Stmt> statements = Collections.singletonList(statement);
+      if (hadError) {
+        new Resolver(this).resolve(statements);
+        continue;
+      }
+
+      execute(statements);
+      if (hadRuntimeError) return;
+    }
+  }
+
+  private void execute(List<Stmt> statements) {
+    statements = compile(statements);
+    if (statements != null) interpret(statements);
+  }
+
+  // Null if there was a resolution error
+  private List<Stmt> compile(List<Stmt> statements) {
+    // Semantic Analysis
+    Resolver resolver = new Resolver(this);
+    resolver.resolve(statements);
+
+    // Stop if there was a resolution error
+    if (hadError) return null;
+
+    // Folds constants, drops dead code and moves loop invariants out, for every engine
+    Optimizer optimizer = new Optimizer();
+    statements = optimizer.optimizeScript(statements);
+    // The invariants are new locals, every slot and depth after them has to be worked out again
+    if (optimizer.hoisted) new Resolver(this).resolve(statements);
+    return statements;
+  }
+
+  private void interpret(List<Stmt> statements) {
+    if (engine.backend == LoxEngine.Backend.NODES) {
+      nodeInterpreter.interpret(statements);
+    } else if (engine.backend == LoxEngine.Backend.VM) {
+      interpreter.vm().interpret(statements);
+    } else {
+      interpreter.interpret(statements);
+    }
+
+  }
+
+  // Reports the runtime errors of the finished tasks that failed without anyone joining them. With
+  // 'wait', that's once none of them can get anything more done, and the ones still waiting on a
+  // channel or a join then never would finish, so they're stopped
+  private void finishTasks(boolean wait) {
+    if (wait) {
+      try {
+        idle();
+      } catch (InterruptedException error) {
+        // Whoever's running the script wants it to stop, the tasks are left as they are
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+
+    List<Task> stuck = new ArrayList<>();
+    for (Iterator<Task> pending = tasks.iterator(); pending.hasNext(); ) {
+      Task task = pending.next();
+      if (task.isDone()) {
+        pending.remove();
+        RuntimeError error = task.error();
+        if (error != null && !task.wasJoined()) runtimeError(error);
+      } else if (wait) {
+        pending.remove();
+        stuck.add(task);
+      }
+    }
+    // Only once they've all been looked at, one that's stopped fails whoever's joining it
+    for (Task task : stuck) task.cancel();
+  }
+
+  // A thread working for the script, or 'count' of them, started or went back to running
+  synchronized void resumed(int count) {
+    running += count;
+  }
+
+  // A thread working for the script finished or is waiting for one of the others
+  synchronized void paused() {
+    if (--running == 0) notifyAll();
+  }
+
+  private synchronized void idle() throws InterruptedException {
+    while (running > 0) wait();
+  }
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  private void report(int line, String where, String message) {
+    err.println("[line " + line + "] Error" + where + ": " + message);
+    hadError = true;
+  }
+
+  void error(Token token, String message){
+    if (token.type == TokenType.EOF){
+      report(token.line, " at end", message);
+    } else {
+      report(token.line, " at '" + token.lexeme() + "'", message);
+    }
+  }
+
+  void runtimeError(RuntimeError error) {
+    err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+    hadRuntimeError = true;
+  }
+
+}
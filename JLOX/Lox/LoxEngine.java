@@ -0,0 +1,63 @@
+package JLOX.Lox;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+// Runs Lox scripts with one set of options, for jlox itself or a program that embeds it. The engine
+// only holds the options, everything a script changes is in the LoxContext it runs in, so one engine
+// can run any number of scripts at the same time on different threads
+public class LoxEngine {
+  // Which backend runs the resolved program. The tree-walking Interpreter is the reference one
+  enum Backend {
+    TREE,
+    NODES,
+    VM,
+    // The tree-walker, with hot functions compiled to JVM bytecode
+    JIT
+  }
+
+  Backend backend = Backend.TREE;
+  // Run each top-level declaration of a script as soon as it's parsed
+  boolean streaming = false;
+  // Where resolved scripts are kept between runs, null when there's no cache
+  ScriptCache cache = null;
+  int maxDepth = Interpreter.MAX_DEPTH;
+
+  // Takes one of jlox's command line options, eg. --engine=vm. False if it isn't one
+  public boolean option(String option) {
+    if (option.startsWith("--max-depth=")) {
+      try {
+        maxDepth = Integer.parseInt(option.substring("--max-depth=".length()));
+      } catch (NumberFormatException error) {
+        return false;
+      }
+      return maxDepth > 0;
+    }
+    if (option.startsWith("--cache=")) {
+      cache = new ScriptCache(Paths.get(option.substring("--cache=".length())));
+      return true;
+    }
+
+    switch (option) {
+      case "--engine=tree": backend = Backend.TREE; return true;
+      case "--engine=nodes": backend = Backend.NODES; return true;
+      case "--engine=vm": backend = Backend.VM; return true;
+      case "--engine=jit": backend = Backend.JIT; return true;
+      case "--stream": streaming = true; return true;
+    }
+    return false;
+  }
+
+  // A fresh set of globals, printing to out and reporting errors to err. A context runs one script
+  // at a time
+  public LoxContext newContext(PrintStream out, PrintStream err) {
+    return new LoxContext(this, out, err);
+  }
+
+  // Runs a script in a context of its own, see LoxContext.run()
+  public int run(ByteBuffer source, PrintStream out, PrintStream err) {
+    return newContext(out, err).run(source);
+  }
+
+}
@@ -3,47 +3,96 @@ package JLOX.Lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-  private final Stmt.Function declaration;
-  private final Environment closure;
-  private final boolean isInitializer;
+  final Stmt.Function declaration;
+  // Just the variables from enclosing functions that the body uses, not their whole environments
+  final Upvalue[] upvalues;
+  final boolean isInitializer;
+  // The instance 'this' refers to once a method is bound, null for plain functions
+  final LoxInstance receiver;
+  // This function's generated class once the Jit has compiled it
+  JitFunction compiled;
 
-  LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+  LoxFunction(Stmt.Function declaration, Upvalue[] upvalues, boolean isInitializer) {
+    this(declaration, upvalues, isInitializer, null);
+  }
+
+  LoxFunction(Stmt.Function declaration, Upvalue[] upvalues, boolean isInitializer, LoxInstance receiver) {
     this.isInitializer = isInitializer;
-    this.closure = closure;
+    this.upvalues = upvalues;
     this.declaration = declaration;
+    this.receiver = receiver;
   } 
 
   LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("this", instance);
-    // Returns the NEW closure with 'this' binded to it!
-    return new LoxFunction(declaration, environment, isInitializer);
+    // Returns the NEW function with 'this' binded to it!
+    LoxFunction bound = new LoxFunction(declaration, upvalues, isInitializer, instance);
+    bound.compiled = compiled;
+    return bound;
   
   }
 
   @Override 
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    // Each function CALL gets its own env (new local scope) NOT each func declaration
-    // interpreter.globals -> getting the global env to enclose the new function's scope
-    // changing globals to CLOSURE now
-    Environment environment = new Environment(closure);
+    return call(interpreter, receiver, arguments.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    return call(interpreter, receiver, arguments);
+  }
+
+  // Calls the function as a method of 'receiver'. Method call sites use this directly
+  // instead of making a bound copy of the method just to call it once
+  Object call(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+    // In tiered mode a hot function runs as a JVM class instead
+    if (interpreter.jit != null) {
+      JitFunction compiled = interpreter.jit.compiled(this);
+      if (compiled != null) {
+        Object result = compiled.invoke(interpreter, receiver, arguments);
+        if (result instanceof TailCall) result = ((TailCall)result).run(interpreter);
+        return isInitializer ? receiver : result;
+      }
+    }
 
-    for (int i = 0; i < declaration.params.size(); i++) {
+    Environment environment = environment(receiver);
+    for (int i = 0; i < arguments.length; i++) {
       // dec params is like 'a' and the arguments is the user's value for 'a' Eg 19
-      environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+      argument(environment, i, arguments[i]);
     } 
 
-    try {
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-      if (isInitializer) return closure.getAt(0, "this");
-      return returnValue.value;
-    } 
+    return run(interpreter, environment, receiver);
+  } 
 
-    if (isInitializer) return closure.getAt(0, "this");
+  // The frame-based calling convention. The Interpreter's call sites make the callee's environment,
+  // evaluate each argument straight into it and then run the body, with no list or array in between
 
-    return null;
-  } 
+  Environment environment(LoxInstance receiver) {
+    // Each function CALL gets its own env (new local scope) NOT each func declaration
+    // It isn't chained to anything, the closure's upvalues are all it sees of the enclosing code
+    Environment environment = new Environment(upvalues);
+
+    // Methods get 'this' in slot 0, ahead of the parameters
+    if (receiver != null) {
+      environment.define("this", declaration.capturedParams[0] ? new Upvalue(receiver) : receiver);
+    }
+    return environment;
+  }
+
+  void argument(Environment frame, int index, Object value) {
+    boolean[] captured = declaration.capturedParams;
+    int slot = captured.length - declaration.params.size() + index;
+    frame.define(declaration.params.get(index).lexeme(), captured[slot] ? new Upvalue(value) : value);
+  }
+
+  Object run(Interpreter interpreter, Environment frame, LoxInstance receiver) {
+    Object completion = interpreter.executeBlock(declaration.body, frame);
+    // Initializers can't return a value, let alone a call
+    if (completion instanceof TailCall) return ((TailCall)completion).run(interpreter);
+
+    if (isInitializer) return receiver;
+
+    return completion != null ? ((Return)completion).value : null;
+  }
 
   @Override 
   public int arity() {
@@ -52,7 +101,65 @@ class LoxFunction implements LoxCallable {
 
   @Override 
   public String toString() {
-    return "<fn " + declaration.name.lexeme + ">";
+    return "<fn " + declaration.name.lexeme() + ">";
+  }
+
+  // What 'return f()' completes with in the Interpreter, and what a compiled function returns for it:
+  // f, called the way the Jit has it, counted like any other call. Calls made from here on go through
+  // LoxFunction.call(), this is only ever built for the tail calls themselves
+  TailCall tailCall(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+    JitFunction compiled = interpreter.jit.compiled(this);
+    if (compiled != null) return new TailCall(compiled, receiver, arguments);
+
+    Environment environment = environment(receiver);
+    for (int i = 0; i < arguments.length; i++) {
+      argument(environment, i, arguments[i]);
+    }
+    return new TailCall(this, environment);
+  }
+
+  // What 'return f()' completes with: f, with its arguments already in its new environment, or for a
+  // function the Jit has compiled, in an array. The function that was returning runs it in a loop in
+  // place of itself, so a chain of tail calls takes no more Java stack than one call does. Initializers
+  // are never tail called
+  static class TailCall {
+    final LoxFunction function;
+    final Environment environment;
+    final JitFunction compiled;
+    final LoxInstance receiver;
+    final Object[] arguments;
+
+    TailCall(LoxFunction function, Environment environment) {
+      this.function = function;
+      this.environment = environment;
+      this.compiled = null;
+      this.receiver = null;
+      this.arguments = null;
+    }
+
+    TailCall(JitFunction compiled, LoxInstance receiver, Object[] arguments) {
+      this.function = null;
+      this.environment = null;
+      this.compiled = compiled;
+      this.receiver = receiver;
+      this.arguments = arguments;
+    }
+
+    // Runs it and then each tail call it makes in turn. What the last one returns
+    Object run(Interpreter interpreter) {
+      TailCall call = this;
+      for (;;) {
+        Object completion;
+        if (call.compiled != null) {
+          completion = call.compiled.invoke(interpreter, call.receiver, call.arguments);
+          if (!(completion instanceof TailCall)) return completion;
+        } else {
+          completion = interpreter.executeBlock(call.function.declaration.body, call.environment);
+          if (!(completion instanceof TailCall)) return completion != null ? ((Return)completion).value : null;
+        }
+        call = (TailCall)completion;
+      }
+    }
   }
 
 }
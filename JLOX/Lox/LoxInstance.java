@@ -1,14 +1,18 @@
 package JLOX.Lox; 
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Field values, at the offsets the shape gives their names
+    Shape shape;
+    Object[] fields;
     
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        // Sized for as many fields as the class's instances have had so far, most never need to grow
+        this.fields = new Object[klass.fieldCount];
     } 
 
     @Override 
@@ -16,19 +20,12 @@ class LoxInstance {
         return klass.name + " instance";
     } 
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        } 
-
-        // If it's not a field
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
-
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
-    }
-    
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    void reshape(Shape next) {
+        // The array grows before the shape moves on, for tasks reading an instance another one is adding fields to
+        if (next.size() > fields.length) {
+            fields = Arrays.copyOf(fields, next.size());
+            klass.fieldCount = Math.max(klass.fieldCount, next.size());
+        }
+        shape = next;
     }
 }
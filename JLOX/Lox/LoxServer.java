@@ -0,0 +1,220 @@
+package JLOX.Lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs scripts for clients (see LoxClient) on a JVM that stays up, so a short script doesn't pay for
+// starting one and warming it up every time. Each script gets a LoxContext of its own from the
+// server's engine, so connections are served at the same time. One connection is one script:
+//
+// Request: "RUN <path>\n", or "EVAL <length>\n" followed by that many bytes of source, at most the
+//          server's --max-source
+// Reply:   frames of a kind byte, an int length and that many bytes. STDOUT and STDERR frames are
+//          sent as the script prints, the last one is EXIT with the exit code as an int instead
+class LoxServer {
+  static final byte STDOUT = 'O';
+  static final byte STDERR = 'E';
+  static final byte EXIT = 'X';
+
+  // Exit codes beside runFile()'s 65 and 70: a request that makes no sense, and a script that can't be read
+  static final int USAGE = 64;
+  static final int NO_INPUT = 66;
+
+  // How long EVAL's source can be unless --max-source says otherwise, and a request line
+  static final int MAX_SOURCE = 64 << 20;
+  private static final int MAX_REQUEST = 64 << 10;
+
+  static void serve(String address, LoxEngine engine, int maxSource) throws IOException {
+    // A thread per connection. Most scripts are short, so the pool's idle threads get reused
+    ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try (ServerSocketChannel server = open(address(address))) {
+      for (;;) {
+        SocketChannel client = server.accept();
+        connections.execute(() -> {
+          try (client) {
+            handle(client, engine, maxSource);
+          } catch (IOException error) {
+            // The client went away, nothing more to send it
+          }
+        });
+      }
+    }
+  }
+
+  // A port number means localhost, anything else is the path of a Unix domain socket
+  static SocketAddress address(String address) {
+    if (address.matches("\\d+")) {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+    }
+    return UnixDomainSocketAddress.of(address);
+  }
+
+  private static ServerSocketChannel open(SocketAddress address) throws IOException {
+    if (!(address instanceof UnixDomainSocketAddress)) {
+      return ServerSocketChannel.open().bind(address);
+    }
+
+    // A socket file nobody answers on was left behind by a server that's gone, so it's safe to replace
+    Path path = ((UnixDomainSocketAddress)address).getPath();
+    if (Files.exists(path)) {
+      if (answers(address)) throw new IOException("A server is already running on " + path + ".");
+      Files.delete(path);
+    }
+    ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(address);
+    path.toFile().deleteOnExit();
+    return server;
+  }
+
+  private static boolean answers(SocketAddress address) {
+    try {
+      SocketChannel.open(address).close();
+      return true;
+    } catch (IOException error) {
+      return false;
+    }
+  }
+
+  private static void handle(SocketChannel client, LoxEngine engine, int maxSource) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+    PrintStream stdout = frames(out, STDOUT);
+    PrintStream stderr = frames(out, STDERR);
+    int code;
+    try {
+      code = run(in, engine.newContext(stdout, stderr), stderr, maxSource);
+    } catch (RuntimeException | StackOverflowError error) {
+      // A bug in the interpreter shouldn't take the server down with it
+      stderr.println("Internal error: " + error);
+      code = 70;
+    } finally {
+      stdout.flush();
+      stderr.flush();
+    }
+
+    out.writeByte(EXIT);
+    out.writeInt(code);
+    out.flush();
+  }
+
+  private static int run(DataInputStream in, LoxContext context, PrintStream err, int maxSource) throws IOException {
+    String request = readLine(in);
+    if (request == null) {
+      err.println("Bad request: longer than " + MAX_REQUEST + " bytes.");
+      return USAGE;
+    }
+
+    if (request.startsWith("RUN ")) {
+      String path = request.substring("RUN ".length());
+      ByteBuffer source;
+      try {
+        source = Lox.read(path);
+      } catch (IOException error) {
+        err.println("Can't read " + path + ": " + error);
+        return NO_INPUT;
+      }
+      return context.run(source);
+    }
+
+    if (request.startsWith("EVAL ")) {
+      int length;
+      try {
+        length = Integer.parseInt(request.substring("EVAL ".length()));
+      } catch (NumberFormatException error) {
+        length = -1;
+      }
+      if (length < 0) {
+        err.println("Bad request: " + request);
+        return USAGE;
+      }
+      if (length > maxSource) {
+        err.println("Source of " + length + " bytes is over the server's limit of " + maxSource + ".");
+        return USAGE;
+      }
+
+      // Read as it arrives, a length the client doesn't send that much of costs no more than it did send
+      byte[] source = in.readNBytes(length);
+      if (source.length < length) throw new EOFException();
+      return context.run(ByteBuffer.wrap(source));
+    }
+
+    err.println("Bad request: " + request);
+    return USAGE;
+  }
+
+  // Null if there's no end to it within MAX_REQUEST bytes
+  private static String readLine(DataInputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b = in.readUnsignedByte(); b != '\n'; b = in.readUnsignedByte()) {
+      if (line.size() == MAX_REQUEST) return null;
+      line.write(b);
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  private static PrintStream frames(DataOutputStream out, byte kind) {
+    // Buffered, so each line the script prints goes out as one frame when println() flushes it
+    return new PrintStream(new BufferedOutputStream(new FrameStream(out, kind)), true, Charset.defaultCharset());
+  }
+
+  // Everything written to it is sent as frames of one kind. Both of a connection's streams share
+  // the socket, so a frame is written in one go
+  private static class FrameStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte kind;
+
+    FrameStream(DataOutputStream out, byte kind) {
+      this.out = out;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      synchronized (out) {
+        out.writeByte(kind);
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+
+}
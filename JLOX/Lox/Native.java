@@ -0,0 +1,34 @@
+package JLOX.Lox;
+
+import java.util.List;
+
+// A function written in Java, for the natives that don't need a class of their own like clock's
+class Native implements LoxCallable {
+  interface Body {
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  private final int arity;
+  private final Body body;
+
+  Native(int arity, Body body) {
+    this.arity = arity;
+    this.body = body;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return body.call(interpreter, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+
+}
@@ -0,0 +1,11 @@
+package JLOX.Lox;
+
+// What a native throws when it's called with something it can't use. Natives don't know where
+// they were called from, so the call site turns it into a RuntimeError at its own line
+class NativeError extends RuntimeException {
+
+    NativeError(String message) {
+        super(message, null, false, false);
+    }
+
+}
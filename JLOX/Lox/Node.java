@@ -0,0 +1,24 @@
+package JLOX.Lox;
+
+// Base of the executable tree the NodeInterpreter builds out of the AST. Unlike the AST, a node can
+// swap itself for a version specialized to the values it has actually seen, so it knows its parent
+abstract class Node {
+  Node parent;
+
+  <T extends Node> T adopt(T child) {
+    if (child != null) child.parent = this;
+    return child;
+  }
+
+  <T extends Node> T replace(T replacement) {
+    parent.replaceChild(this, replacement);
+    replacement.parent = parent;
+    return replacement;
+  }
+
+  // Nodes with expression children override this to point the matching field at the replacement
+  void replaceChild(Node child, Node replacement) {
+    throw new IllegalStateException("Node has no child to replace.");
+  }
+
+}
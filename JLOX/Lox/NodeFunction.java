@@ -0,0 +1,82 @@
+package JLOX.Lox;
+
+// A Lox function run by the NodeInterpreter. It's still a LoxFunction, so classes, binding and
+// arity work the same, only the body is an executable node tree instead of the AST
+class NodeFunction extends LoxFunction {
+  private final Root root;
+
+  // What a function declaration compiles to, shared by every closure made from it
+  static class Root extends Node {
+    final Stmt.Function declaration;
+    final StmtNode body;
+    final int frameSize;
+
+    Root(Stmt.Function declaration, StmtNode body, int frameSize) {
+      this.declaration = declaration;
+      this.body = adopt(body);
+      this.frameSize = frameSize;
+    }
+  }
+
+  NodeFunction(Root root, Upvalue[] upvalues, boolean isInitializer, LoxInstance receiver) {
+    super(root.declaration, upvalues, isInitializer, receiver);
+    this.root = root;
+  }
+
+  @Override
+  LoxFunction bind(LoxInstance instance) {
+    return new NodeFunction(root, upvalues, isInitializer, instance);
+  }
+
+  @Override
+  Object call(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+    Frame frame = frame(receiver, interpreter);
+    for (int i = 0; i < arguments.length; i++) {
+      argument(frame, i, arguments[i]);
+    }
+    return run(frame, receiver);
+  }
+
+  // Like LoxFunction's environment(), argument() and run(). The Call and Invoke nodes
+  // evaluate their arguments straight into the callee's frame
+
+  Frame frame(LoxInstance receiver, Interpreter interpreter) {
+    Frame frame = new Frame(root.frameSize, upvalues, interpreter);
+
+    // Methods get 'this' in slot 0, ahead of the parameters
+    if (receiver != null) {
+      frame.slots[0] = declaration.capturedParams[0] ? new Upvalue(receiver) : receiver;
+    }
+    return frame;
+  }
+
+  void argument(Frame frame, int index, Object value) {
+    boolean[] captured = declaration.capturedParams;
+    int slot = captured.length - declaration.params.size() + index;
+    frame.slots[slot] = captured[slot] ? new Upvalue(value) : value;
+  }
+
+  Object run(Frame frame, LoxInstance receiver) {
+    Object completion = root.body.execute(frame);
+    while (completion instanceof TailCall) {
+      TailCall call = (TailCall)completion;
+      completion = call.function.root.body.execute(call.frame);
+    }
+
+    if (isInitializer) return receiver;
+
+    return completion != null ? ((Return)completion).value : null;
+  }
+
+  // LoxFunction.TailCall for the node engine
+  static class TailCall {
+    final NodeFunction function;
+    final Frame frame;
+
+    TailCall(NodeFunction function, Frame frame) {
+      this.function = function;
+      this.frame = frame;
+    }
+  }
+
+}
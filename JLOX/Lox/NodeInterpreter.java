@@ -0,0 +1,305 @@
+package JLOX.Lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// An alternative to the tree-walking Interpreter. It first turns the resolved AST into a tree of
+// executable nodes (ExprNode/StmtNode) and then runs that. Nodes call each other directly instead of
+// going through the visitors, and the ones that depend on operand types specialize themselves on
+// the types they see, which keeps the calls HotSpot sees monomorphic
+class NodeInterpreter implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+  // Shares the Interpreter's globals, so natives (and the REPL's earlier lines) are the same
+  private final Interpreter interpreter;
+  private FunctionScope function;
+
+  // The locals of every block in a function get their own index in one flat Frame.
+  // A block's locals start right after those its enclosing scope has declared so far
+  private static class Scope {
+    final int base;
+    int count = 0;
+
+    Scope(int base) {
+      this.base = base;
+    }
+  }
+
+  private static class FunctionScope {
+    final List<Scope> scopes = new ArrayList<>();
+    int frameSize = 0;
+  }
+
+  NodeInterpreter(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  void interpret(List<Stmt> statements) {
+    // Top-level code is compiled like the body of a function, its blocks' locals go in the script's frame
+    function = new FunctionScope();
+    StmtNode script = new StmtNode.Block(compile(statements));
+    Frame frame = new Frame(function.frameSize, null, interpreter);
+
+    try {
+      script.execute(frame);
+    } catch (RuntimeError error) {
+      interpreter.context.runtimeError(error);
+    }
+  }
+
+  // Statements
+
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    StmtNode block = new StmtNode.Block(compile(stmt.statements));
+    endScope();
+    return block;
+  }
+
+  @Override
+  public StmtNode visitClassStmt(Stmt.Class stmt) {
+    ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+    int slot = isGlobalScope() ? -1 : declareLocal();
+
+    int superSlot = -1;
+    if (stmt.superclass != null) {
+      beginScope();
+      superSlot = declareLocal();
+    }
+
+    ExprNode.Closure[] methods = new ExprNode.Closure[stmt.methods.size()];
+    for (int i = 0; i < methods.length; i++) {
+      Stmt.Function method = stmt.methods.get(i);
+      methods[i] = compileFunction(method, true, method.name.lexeme().equals("init"));
+    }
+
+    if (stmt.superclass != null) endScope();
+
+    return new StmtNode.Class(stmt, superclass, superSlot, methods, slot, interpreter.globals);
+  }
+
+  @Override
+  public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+    return new StmtNode.Expression(compile(stmt.expression));
+  }
+
+  @Override
+  public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+    if (isGlobalScope()) {
+      return new StmtNode.DefineGlobal(stmt.name.lexeme(), interpreter.globals, compileFunction(stmt, false, false));
+    }
+
+    // Declared before the body is compiled, a function that refers to itself captures this slot
+    int slot = declareLocal();
+    return new StmtNode.DefineLocal(slot, stmt.captured, compileFunction(stmt, false, false));
+  }
+
+  @Override
+  public StmtNode visitIfStmt(Stmt.If stmt) {
+    return new StmtNode.If(compile(stmt.condition), compile(stmt.thenBranch), stmt.elseBranch == null ? null : compile(stmt.elseBranch));
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Stmt.Print stmt) {
+    return new StmtNode.Print(compile(stmt.expression), interpreter.context.out);
+  }
+
+  @Override
+  public StmtNode visitReturnStmt(Stmt.Return stmt) {
+    boolean tail = stmt.value instanceof Expr.Call && ((Expr.Call)stmt.value).tail;
+    return new StmtNode.Return(stmt.value == null ? null : compile(stmt.value), tail);
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Stmt.Var stmt) {
+    ExprNode initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+    if (isGlobalScope()) {
+      return new StmtNode.DefineGlobal(stmt.name.lexeme(), interpreter.globals, initializer);
+    }
+    if (!stmt.captured && initializer != null) {
+      // Defining a plain local is just its first write, which can then keep a number unboxed
+      return new StmtNode.Expression(new ExprNode.WriteLocalDouble(declareLocal(), initializer));
+    }
+    return new StmtNode.DefineLocal(declareLocal(), stmt.captured, initializer);
+  }
+
+  @Override
+  public StmtNode visitWhileStmt(Stmt.While stmt) {
+    return new StmtNode.While(compile(stmt.condition), compile(stmt.body));
+  }
+
+  // Expressions
+
+  @Override
+  public ExprNode visitAssignExpr(Expr.Assign expr) {
+    ExprNode value = compile(expr.value);
+
+    if (expr.depth >= 0) {
+      return expr.captured ? new ExprNode.WriteLocalBox(expr.slot, value) : new ExprNode.WriteLocalDouble(expr.slot, value);
+    } else if (expr.upvalue >= 0) {
+      return new ExprNode.WriteUpvalue(expr.upvalue, value);
+    }
+    return new ExprNode.WriteGlobal(expr.name, expr.global, interpreter.globals, value);
+  }
+
+  @Override
+  public ExprNode visitBinaryExpr(Expr.Binary expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+
+    switch (expr.operator.type) {
+      case BANG_EQUAL: return new ExprNode.NotEqual(expr.operator, left, right);
+      case EQUAL_EQUAL: return new ExprNode.Equal(expr.operator, left, right);
+      case GREATER: return new ExprNode.Greater(expr.operator, left, right);
+      case GREATER_EQUAL: return new ExprNode.GreaterEqual(expr.operator, left, right);
+      case LESS: return new ExprNode.Less(expr.operator, left, right);
+      case LESS_EQUAL: return new ExprNode.LessEqual(expr.operator, left, right);
+      case MINUS: return new ExprNode.Subtract(expr.operator, left, right);
+      case PLUS: return new ExprNode.Add(expr.operator, left, right);
+      case SLASH: return new ExprNode.Divide(expr.operator, left, right);
+      case STAR: return new ExprNode.Multiply(expr.operator, left, right);
+    }
+
+    // Unreachable, the Parser only builds binary expressions for the operators above
+    throw new IllegalStateException("Unknown binary operator " + expr.operator.type + ".");
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Expr.Call expr) {
+    ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.arguments.get(i));
+    }
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get)expr.callee;
+      return new ExprNode.Invoke(expr.paren, get.name, compile(get.object), arguments);
+    }
+    return new ExprNode.Call(expr.paren, compile(expr.callee), arguments);
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Expr.Get expr) {
+    return new ExprNode.Get(expr.name, compile(expr.object));
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+    // Grouping only matters to the Parser
+    return compile(expr.expression);
+  }
+
+  @Override
+  public ExprNode visitLiteralExpr(Expr.Literal expr) {
+    return new ExprNode.Literal(expr.value);
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Expr.Logical expr) {
+    if (expr.operator.type == TokenType.OR) {
+      return new ExprNode.Or(expr.operator, compile(expr.left), compile(expr.right));
+    }
+    return new ExprNode.And(expr.operator, compile(expr.left), compile(expr.right));
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Expr.Set expr) {
+    return new ExprNode.Set(expr.name, compile(expr.object), compile(expr.value));
+  }
+
+  @Override
+  public ExprNode visitSuperExpr(Expr.Super expr) {
+    return new ExprNode.Super(expr.method, expr.upvalue, compile(expr.receiver));
+  }
+
+  @Override
+  public ExprNode visitThisExpr(Expr.This expr) {
+    return read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.captured, -1);
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.BANG) {
+      return new ExprNode.Not(compile(expr.right));
+    }
+    return new ExprNode.Negate(expr.operator, compile(expr.right));
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Expr.Variable expr) {
+    return read(expr.name, expr.depth, expr.slot, expr.upvalue, expr.captured, expr.global);
+  }
+
+  // Helper Methods
+
+  private StmtNode[] compile(List<Stmt> statements) {
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = compile(statements.get(i));
+    }
+    return nodes;
+  }
+
+  private StmtNode compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private ExprNode compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private ExprNode read(Token name, int depth, int slot, int upvalue, boolean captured, int global) {
+    if (depth >= 0) {
+      return captured ? new ExprNode.ReadLocalBox(slot) : new ExprNode.ReadLocal(slot);
+    } else if (upvalue >= 0) {
+      return new ExprNode.ReadUpvalue(upvalue);
+    }
+    return new ExprNode.ReadGlobal(name, global, interpreter.globals);
+  }
+
+  private ExprNode.Closure compileFunction(Stmt.Function declaration, boolean isMethod, boolean isInitializer) {
+    // Upvalues are captured from the scopes the declaration sits in, so map them to slots before leaving them
+    int[] captures = new int[declaration.upvalueDepths.length];
+    boolean[] fromSlot = new boolean[captures.length];
+    for (int i = 0; i < captures.length; i++) {
+      fromSlot[i] = declaration.upvalueDepths[i] >= 0;
+      captures[i] = declaration.upvalueSlots[i];
+    }
+
+    FunctionScope enclosing = function;
+    function = new FunctionScope();
+
+    // Same layout as the Resolver: 'this' for methods, then the parameters, then the body's locals
+    beginScope();
+    if (isMethod) declareLocal();
+    for (int i = 0; i < declaration.params.size(); i++) declareLocal();
+    StmtNode body = new StmtNode.Block(compile(declaration.body));
+    endScope();
+
+    NodeFunction.Root root = new NodeFunction.Root(declaration, body, function.frameSize);
+    function = enclosing;
+    return new ExprNode.Closure(root, captures, fromSlot, isInitializer);
+  }
+
+  private boolean isGlobalScope() {
+    // Like the Resolver, anything declared outside every scope (so only at top level) is a global
+    return function.scopes.isEmpty();
+  }
+
+  private void beginScope() {
+    List<Scope> scopes = function.scopes;
+    Scope enclosing = scopes.isEmpty() ? null : scopes.get(scopes.size() - 1);
+    scopes.add(new Scope(enclosing == null ? 0 : enclosing.base + enclosing.count));
+  }
+
+  private void endScope() {
+    function.scopes.remove(function.scopes.size() - 1);
+  }
+
+  private int declareLocal() {
+    // Reusing the slots of blocks that already ended is fine, nothing can reach their locals anymore
+    Scope scope = function.scopes.get(function.scopes.size() - 1);
+    int slot = scope.base + scope.count++;
+    function.frameSize = Math.max(function.frameSize, slot + 1);
+    return slot;
+  }
+
+}
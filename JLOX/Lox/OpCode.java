@@ -0,0 +1,71 @@
+package JLOX.Lox;
+
+// The instruction set of the bytecode VM. Operands come right after the opcode in the code array:
+// 'u8' is one byte, 'u16' two (high byte first). A u16 that's WIDE means the value didn't fit, it's in
+// the chunk's table of wide operands at the same offset. Names are string constants. Property
+// instructions' inline caches are kept by the chunk too, under the instruction's own offset.
+// Stack effects are noted as [before -> after]
+final class OpCode {
+  static final byte CONSTANT = 0;        // u16 constant      [ -> value]
+  static final byte NIL = 1;             //                   [ -> nil]
+  static final byte TRUE = 2;            //                   [ -> true]
+  static final byte FALSE = 3;           //                   [ -> false]
+  static final byte POP = 4;             //                   [value -> ]
+
+  static final byte GET_LOCAL = 5;       // u16 slot          [ -> value]
+  static final byte SET_LOCAL = 6;       // u16 slot          [value -> value]
+  static final byte GET_BOXED = 7;       // u16 slot          [ -> value]  a captured local, its slot holds an Upvalue
+  static final byte SET_BOXED = 8;       // u16 slot          [value -> value]
+  static final byte BOX = 9;             //                   [value -> Upvalue]  turns a new local into a captured one
+  static final byte GET_UPVALUE = 10;    // u16 index         [ -> value]
+  static final byte SET_UPVALUE = 11;    // u16 index         [value -> value]
+  static final byte GET_GLOBAL = 12;     // u16 global slot, u16 name  [ -> value]
+  static final byte SET_GLOBAL = 13;     // u16 global slot, u16 name  [value -> value]
+  static final byte DEFINE_GLOBAL = 14;  // u16 name          [value -> ]
+
+  static final byte GET_PROPERTY = 15;   // u16 name, cached  [instance -> value]
+  static final byte SET_PROPERTY = 16;   // u16 name, cached  [instance value -> value]
+  static final byte CHECK_INSTANCE = 17; // u16 name          [instance -> instance]  so a bad target fails before its value runs
+  static final byte GET_SUPER = 18;      // u16 name, u16 upvalue  [this -> bound method]
+
+  static final byte EQUAL = 19;          //                   [a b -> bool]
+  static final byte NOT_EQUAL = 20;
+  static final byte GREATER = 21;
+  static final byte GREATER_EQUAL = 22;
+  static final byte LESS = 23;
+  static final byte LESS_EQUAL = 24;
+  static final byte ADD = 25;            //                   [a b -> result]
+  static final byte SUBTRACT = 26;
+  static final byte MULTIPLY = 27;
+  static final byte DIVIDE = 28;
+  static final byte NOT = 29;            //                   [value -> bool]
+  static final byte NEGATE = 30;         //                   [value -> number]
+
+  static final byte PRINT = 31;          //                   [value -> ]
+  static final byte JUMP = 32;           // u16 offset forward
+  static final byte JUMP_IF_FALSE = 33;  // u16 offset forward, leaves the condition on the stack
+  static final byte JUMP_IF_TRUE = 34;   // u16 offset forward, leaves the condition on the stack
+  static final byte LOOP = 35;           // u16 offset backward
+
+  static final byte CALL = 36;           // u8 argument count [callee args -> result]
+  static final byte CLOSURE = 37;        // u16 prototype     [ -> function]
+  static final byte RETURN = 38;         //                   [result -> ]  back in the caller: [callee args -> result]
+  static final byte CLASS = 39;          // u16 name, u16 method count, u8 has superclass, u16 super slot
+                                         //                   [methods -> class]
+  static final byte CHECK_SUPERCLASS = 40; //                 [value -> value]
+
+  // obj.method(args) without a bound method in between. For a field, the receiver is left nil
+  static final byte GET_METHOD = 41;     // u16 name, cached  [instance -> method receiver]
+  static final byte INVOKE = 42;         // u8 argument count [method receiver args -> result]
+
+  // 'return f(args)'. A Lox function callee runs in the returning call's frame instead of one of its
+  // own, anything else is called like CALL and INVOKE do, for the RETURN after it
+  static final byte TAIL_CALL = 43;      // u8 argument count [callee args -> ]
+  static final byte TAIL_INVOKE = 44;    // u8 argument count [method receiver args -> ]
+
+  // A u16 operand whose value is in the chunk's wide table
+  static final int WIDE = 0xffff;
+
+  private OpCode() {}
+
+}
@@ -0,0 +1,391 @@
+package JLOX.Lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Runs between the Resolver and whichever engine runs the program. It folds expressions whose
+// operands are all literals and drops code that can never run, so no engine re-evaluates them.
+// Nodes are rebuilt instead of changed, and a rebuilt node keeps what the Resolver put on the old one.
+// Anything that would be a runtime error, like "a" - 1, is left alone so it still fails at its own line.
+// A second pass moves arithmetic that gives the same value on every iteration out in front of its loop
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // What fold() returns when the operands aren't the kind the operator works on
+  private static final Object NOT_CONSTANT = new Object();
+
+  // Set once something was moved out of a loop. The new locals need the Resolver to run again
+  boolean hoisted = false;
+
+  // Only there during the hoisting pass
+  private LoopAnalysis analysis;
+  // The loops whose bodies are being rewritten, outermost first
+  private List<Loop> loops = new ArrayList<>();
+  private int invariants = 0;
+
+  private static class Loop {
+    final Set<Stmt.Var> assigned;
+    // The locals declared in front of the loop, one per expression moved out of it
+    final List<Stmt> invariants = new ArrayList<>();
+
+    Loop(Set<Stmt.Var> assigned) {
+      this.assigned = assigned;
+    }
+  }
+
+  List<Stmt> optimizeScript(List<Stmt> statements) {
+    List<Stmt> folded = optimize(statements);
+
+    // Hoisting looks at the folded tree, so the analysis has to come after folding
+    analysis = new LoopAnalysis(folded);
+    List<Stmt> optimized = optimize(folded);
+    analysis = null;
+    return optimized;
+  }
+
+  private List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+    for (Stmt statement : statements) {
+      Stmt result = optimize(statement);
+      // null is a statement that turned out to do nothing
+      if (result != null) optimized.add(result);
+    }
+    return optimized;
+  }
+
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    // The outermost loop it doesn't change in gets it, so it's worked out as few times as possible
+    if (!loops.isEmpty() && isComputation(expr)) {
+      for (int i = 0; i < loops.size(); i++) {
+        if (!isInvariant(expr, loops.get(i).assigned)) continue;
+
+        // Parts of it may not change in the loops further out either
+        List<Loop> enclosingLoops = loops;
+        loops = new ArrayList<>(loops.subList(0, i));
+        Expr invariant = expr.accept(this);
+        loops = enclosingLoops;
+        return hoist(invariant, loops.get(i));
+      }
+    }
+    return expr.accept(this);
+  }
+
+  // Where a statement has to be there, like a loop's body, one that was dropped becomes an empty block
+  private Stmt optimizeBody(Stmt stmt) {
+    Stmt result = optimize(stmt);
+    return result == null ? new Stmt.Block(new ArrayList<>()) : result;
+  }
+
+  // Statements
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimize(stmt.statements);
+    if (statements.equals(stmt.statements)) return stmt;
+    return new Stmt.Block(statements);
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Function method : stmt.methods) {
+      optimize(method);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    // A literal on its own does nothing
+    if (expression instanceof Expr.Literal) return null;
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    // The body runs when the function is called, nothing in it can be moved out of a loop around the declaration
+    List<Loop> enclosingLoops = loops;
+    loops = new ArrayList<>();
+
+    // The body is changed in place, rebuilding the declaration would mean copying everything the
+    // Resolver worked out about its captures
+    List<Stmt> body = optimize(stmt.body);
+    loops = enclosingLoops;
+    if (!body.equals(stmt.body)) {
+      stmt.body.clear();
+      stmt.body.addAll(body);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal) {
+      // Only one branch can ever run
+      if (Interpreter.isTruthy(((Expr.Literal)condition).value)) return optimize(stmt.thenBranch);
+      return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+    }
+
+    Stmt thenBranch = optimizeBody(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch == null ? null : optimizeBody(stmt.elseBranch);
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = optimize(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) return stmt;
+    Expr value = optimize(stmt.value);
+    if (value == stmt.value) return stmt;
+    return new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) return stmt;
+    Expr initializer = optimize(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+
+    Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+    var.captured = stmt.captured;
+    return var;
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Loop loop = analysis == null ? null : new Loop(analysis.assigned.get(stmt));
+    if (loop != null) loops.add(loop);
+
+    Expr condition = optimize(stmt.condition);
+    Stmt body = null;
+    // The body never runs
+    boolean dead = condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)condition).value);
+    if (!dead) body = optimizeBody(stmt.body);
+
+    if (loop != null) loops.remove(loops.size() - 1);
+    if (dead) return null;
+
+    Stmt result = stmt;
+    if (condition != stmt.condition || body != stmt.body) result = new Stmt.While(condition, body);
+    if (loop == null || loop.invariants.isEmpty()) return result;
+
+    // { var <invariant> = ...; while (...) ... }, the block keeps the new locals out of the enclosing scope
+    List<Stmt> statements = new ArrayList<>(loop.invariants);
+    statements.add(result);
+    hoisted = true;
+    return new Stmt.Block(statements);
+  }
+
+  // Expressions
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (value == expr.value) return expr;
+
+    Expr.Assign assign = new Expr.Assign(expr.name, value);
+    assign.depth = expr.depth;
+    assign.slot = expr.slot;
+    assign.upvalue = expr.upvalue;
+    assign.captured = expr.captured;
+    assign.global = expr.global;
+    return assign;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object value = fold(expr.operator, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+      if (value != NOT_CONSTANT) return new Expr.Literal(value);
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = optimize(expr.callee);
+    List<Expr> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(optimize(argument));
+    }
+    if (callee == expr.callee && arguments.equals(expr.arguments)) return expr;
+
+    Expr.Call call = new Expr.Call(callee, expr.paren, arguments);
+    call.tail = expr.tail;
+    return call;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr object = optimize(expr.object);
+    if (object == expr.object) return expr;
+    return new Expr.Get(object, expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = optimize(expr.expression);
+    if (expression instanceof Expr.Literal) return expression;
+    if (expression == expr.expression) return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal) {
+      // Same as the Interpreter: 'or' stops at a truthy left operand, 'and' at a falsy one
+      boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+      if (expr.operator.type == TokenType.OR ? truthy : !truthy) return left;
+      return right;
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr object = optimize(expr.object);
+    Expr value = optimize(expr.value);
+    if (object == expr.object && value == expr.value) return expr;
+    return new Expr.Set(object, expr.name, value);
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+
+    if (right instanceof Expr.Literal) {
+      Object value = ((Expr.Literal)right).value;
+      if (expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+      if (expr.operator.type == TokenType.MINUS && value instanceof Double) return new Expr.Literal(-(double)value);
+    }
+
+    if (right == expr.right) return expr;
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  // Loop invariants
+
+  private static boolean isComputation(Expr expr) {
+    // A variable or a literal on its own is already as cheap as reading the hoisted local
+    return expr instanceof Expr.Binary || expr instanceof Expr.Unary || expr instanceof Expr.Logical;
+  }
+
+  // Whether the expression gives the same value on every iteration, and can be worked out before the
+  // loop even when the loop never runs. So no calls, nothing that could fail, only locals the loop
+  // leaves alone, and no captured ones since a closure could change those behind the loop's back
+  private boolean isInvariant(Expr expr, Set<Stmt.Var> assigned) {
+    if (expr instanceof Expr.Literal) return true;
+    if (expr instanceof Expr.Grouping) return isInvariant(((Expr.Grouping)expr).expression, assigned);
+
+    if (expr instanceof Expr.Variable) {
+      Stmt.Var declaration = analysis.declarations.get(expr);
+      return declaration != null && !declaration.captured && !assigned.contains(declaration);
+    }
+
+    if (expr instanceof Expr.Logical) {
+      Expr.Logical logical = (Expr.Logical)expr;
+      return isInvariant(logical.left, assigned) && isInvariant(logical.right, assigned);
+    }
+
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary)expr;
+      if (!isInvariant(unary.right, assigned)) return false;
+      return unary.operator.type == TokenType.BANG || analysis.isNumber(unary.right);
+    }
+
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary)expr;
+      if (!isInvariant(binary.left, assigned) || !isInvariant(binary.right, assigned)) return false;
+      // Equality works on anything, everything else is only safe on numbers
+      TokenType type = binary.operator.type;
+      if (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) return true;
+      return analysis.isNumber(binary.left) && analysis.isNumber(binary.right);
+    }
+
+    return false;
+  }
+
+  private Expr hoist(Expr expr, Loop loop) {
+    // No identifier can have a space in it, so the name can't clash with anything in the script
+    Token name = new Token(TokenType.IDENTIFIER, "loop invariant " + ++invariants, null, operator(expr).line);
+    loop.invariants.add(new Stmt.Var(name, expr));
+    return new Expr.Variable(name);
+  }
+
+  private static Token operator(Expr expr) {
+    if (expr instanceof Expr.Binary) return ((Expr.Binary)expr).operator;
+    if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator;
+    return ((Expr.Logical)expr).operator;
+  }
+
+  // The Interpreter's binary operators, for operands known ahead of time
+  private static Object fold(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+      case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+      case PLUS:
+        if (left instanceof String && right instanceof String) return (String)left + (String)right;
+        break;
+    }
+
+    if (!(left instanceof Double && right instanceof Double)) return NOT_CONSTANT;
+    double a = (double)left;
+    double b = (double)right;
+
+    switch (operator.type) {
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      case LESS: return a < b;
+      case LESS_EQUAL: return a <= b;
+      case MINUS: return a - b;
+      case PLUS: return a + b;
+      case SLASH: return a / b;
+      case STAR: return a * b;
+    }
+
+    return NOT_CONSTANT;
+  }
+
+}
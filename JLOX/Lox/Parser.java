@@ -2,6 +2,7 @@ package JLOX.Lox;
 import static JLOX.Lox.TokenType.*;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Arrays;
 
@@ -9,21 +10,38 @@ class Parser {
   // Empty custom exception class
   private static class ParseError extends RuntimeException {};
 
-  private final List<Token> tokens;
-  private int current = 0;
+  // Only one token of lookahead is ever needed, so the tokens can come from a list or straight
+  // from the Scanner as they're scanned. Only the current and the previous one are kept
+  private final Iterator<Token> tokens;
+  private Token previous;
+  private Token current;
+  // Where syntax errors are reported
+  private final LoxContext context;
   
-  Parser(List<Token> tokens){
+  Parser(Iterator<Token> tokens, LoxContext context){
     this.tokens = tokens;
+    this.context = context;
+    current = tokens.next();
   }
   
   List<Stmt> parse() {
     List<Stmt> statements = new ArrayList<>();
-    while (!isAtEnd()) {
-      statements.add(declaration());
+    while (hasNext()) {
+      statements.add(next());
     }
     return statements;
   } 
 
+  // One top-level declaration at a time, for running them as they're parsed.
+  // next() returns null after a syntax error, like parse() puts in its list
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  Stmt next() {
+    return declaration();
+  }
+
   // Variable Declartion Rule
 
   private Stmt declaration() {
@@ -405,8 +423,11 @@ class Parser {
   }
 
   private Token advance(){
-    if (!isAtEnd()) current++;
-    // Returns the previous but increments current at the same time (Like Post increment)
+    if (!isAtEnd()) {
+      previous = current;
+      current = tokens.next();
+    }
+    // Returns the previous but moves on to the next token at the same time (Like Post increment)
     return previous();
   }
 
@@ -415,11 +436,11 @@ class Parser {
   }
 
   private Token peek(){
-    return tokens.get(current);
+    return current;
   }
 
   private Token previous(){
-    return tokens.get(current - 1); 
+    return previous; 
   }
  
   private Token consume(TokenType type, String message){
@@ -429,7 +450,7 @@ class Parser {
 
   private ParseError error(Token token, String message){
     // Reports an error at a given token
-    Lox.error(token, message);
+    context.error(token, message);
     return new ParseError();
   }
 
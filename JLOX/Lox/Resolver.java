@@ -1,5 +1,6 @@
 package JLOX.Lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,14 +10,52 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // Each element in the stack is a Map representing a single block scope.
     // When resolving a variable, if we can’t find it in the stack of local scopes, we assume it must be global.
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
+    // The functions being resolved, innermost on top. Top-level code is the bottom one
+    private final Stack<FunctionScope> functions = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // Where errors are reported, and the globals the script uses get their slots
+    private final LoxContext context;
+    private final Environment globals;
+
+    Resolver(LoxContext context) {
+        this.context = context;
+        this.globals = context.interpreter.globals;
+        functions.push(new FunctionScope(0));
+    }
 
-    Resolver(Interpreter interpreter) {        
-        this.interpreter = interpreter;
-    } 
+    private static class Local {
+        // Its index in the function's Environment. Every block of a function shares that one env, so
+        // slots are numbered across the whole function and a block's are free again once it ends
+        final int slot;
+        // The Stmt.Var, Stmt.Function or Stmt.Class that declared it, null for parameters, 'this' and 'super'
+        final Stmt declaration;
+        boolean defined = false;
+        // Set once a closure refers to it, which means it has to live in an Upvalue box
+        boolean captured = false;
+        // The nodes that use it as a local, told once the scope ends whether it was captured
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    private static class FunctionScope {
+        // Index in 'scopes' of the function's outermost scope, everything below belongs to enclosing functions
+        final int base;
+        // Where to capture each upvalue from when the closure is created (see Stmt.Function)
+        final List<Integer> upvalueDepths = new ArrayList<>();
+        final List<Integer> upvalueSlots = new ArrayList<>();
+        // Locals of the function in scope right now, the next one declared gets this slot
+        int locals = 0;
+
+        FunctionScope(int base) {
+            this.base = base;
+        }
+    }
 
     private enum FunctionType {
         NONE, 
@@ -41,7 +80,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override 
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         } 
@@ -51,23 +90,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override 
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme()) && !scopes.peek().get(expr.name.lexeme()).defined) {
+            context.error(expr.name, "Can't read local variable in its own initializer.");
         } 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme());
         return null;
     } 
 
     @Override 
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme());
         return null;
     } 
 
     @Override 
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -97,13 +136,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override 
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            context.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             // User cannot define a return type for an initializer method
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                context.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+            // 'return f()' is the last thing the function does, so f can run in place of it
+            if (stmt.value instanceof Expr.Call) {
+                ((Expr.Call)stmt.value).tail = true;
             }
             resolve(stmt.value);
         } 
@@ -164,11 +207,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);  
 
-        if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        if (stmt.superclass != null && stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
+            context.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -178,22 +221,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            // 'super' is the only variable in its scope. Only methods use it, so it's always reached as an upvalue
+            declareHidden("super");
         }
 
-        // Create new scope for 'this'
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration =  FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
         }
-        
-        endScope();
 
         if (stmt.superclass != null) endScope();
         
@@ -217,22 +255,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override 
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            context.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "this");
         return null;
     }
 
     @Override 
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            context.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            context.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         } 
-        resolveLocal(expr, expr.keyword);
+        expr.upvalue = resolveUpvalue(functions.size()-1, "super");
+
+        // The method also needs the instance it was called on
+        expr.receiver = new Expr.This(expr.keyword);
+        resolveLocal(expr.receiver, "this");
         return null;
     }
 
@@ -253,51 +295,161 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     } 
 
     private void beginScope()  {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
     } 
 
     private void endScope() {
-        scopes.pop();
+        Map<String, Local> scope = scopes.pop();
+        functions.peek().locals -= scope.size();
+
+        // The whole scope has been seen now, so we know which of its locals were captured by a closure
+        for (Local local : scope.values()) {
+            if (!local.captured) continue;
+
+            for (Expr use : local.uses) {
+                if (use instanceof Expr.Variable) ((Expr.Variable)use).captured = true;
+                else if (use instanceof Expr.Assign) ((Expr.Assign)use).captured = true;
+                else if (use instanceof Expr.This) ((Expr.This)use).captured = true;
+            }
+
+            if (local.declaration instanceof Stmt.Var) ((Stmt.Var)local.declaration).captured = true;
+            else if (local.declaration instanceof Stmt.Function) ((Stmt.Function)local.declaration).captured = true;
+            else if (local.declaration instanceof Stmt.Class) ((Stmt.Class)local.declaration).captured = true;
+        }
     } 
 
     private void declare(Token name) {
+        declare(name, null);
+    }
+
+    private void declare(Token name, Stmt declaration) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already a variable with this name in this scope.");
+        Map<String, Local> scope = scopes.peek();
+        if (scope.containsKey(name.lexeme())) {
+            context.error(name, "Already a variable with this name in this scope.");
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.lexeme(), new Local(functions.peek().locals++, declaration));
     }  
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
 
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme()).defined = true;
+    }
+
+    private void declareHidden(String name) {
+        // For the implicit 'this' and 'super' variables, which have no token of their own
+        Local local = new Local(functions.peek().locals++, null);
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size()-1; i >=0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size()-1 - i);
+    private void resolveLocal(Expr expr, String name) {
+        // Only the current function's own scopes hold its locals
+        for (int i = scopes.size()-1; i >= functions.peek().base; i--) {
+            Local local = scopes.get(i).get(name);
+            if (local != null) {
+                // All of them are in the one env, so the depth only says it's a local
+                int depth = 0;
+
+                // Stored on the node itself so the Interpreter doesn't need a side table to find it
+                if (expr instanceof Expr.Variable) {
+                    ((Expr.Variable)expr).depth = depth;
+                    ((Expr.Variable)expr).slot = local.slot;
+                } else if (expr instanceof Expr.Assign) {
+                    ((Expr.Assign)expr).depth = depth;
+                    ((Expr.Assign)expr).slot = local.slot;
+                } else if (expr instanceof Expr.This) {
+                    ((Expr.This)expr).depth = depth;
+                    ((Expr.This)expr).slot = local.slot;
+                }
+                local.uses.add(expr);
                 return;
             }
         }
+
+        // Not one of ours, so it's either captured from an enclosing function or a global
+        int upvalue = resolveUpvalue(functions.size()-1, name);
+        if (upvalue < 0) {
+            if (expr instanceof Expr.Variable) ((Expr.Variable)expr).global = globals.global(name);
+            else if (expr instanceof Expr.Assign) ((Expr.Assign)expr).global = globals.global(name);
+            return;
+        }
+
+        if (expr instanceof Expr.Variable) ((Expr.Variable)expr).upvalue = upvalue;
+        else if (expr instanceof Expr.Assign) ((Expr.Assign)expr).upvalue = upvalue;
+        else if (expr instanceof Expr.This) ((Expr.This)expr).upvalue = upvalue;
+    }
+
+    private int resolveUpvalue(int function, String name) {
+        // Top-level code isn't enclosed by anything, so whatever's left is a global
+        if (function == 0) return -1;
+
+        FunctionScope inner = functions.get(function);
+        FunctionScope outer = functions.get(function - 1);
+
+        // A local of the directly enclosing function is captured from where the closure gets created
+        for (int i = inner.base - 1; i >= outer.base; i--) {
+            Local local = scopes.get(i).get(name);
+            if (local != null) {
+                local.captured = true;
+                return addUpvalue(inner, 0, local.slot);
+            }
+        }
+
+        // Further out, the enclosing function has to capture it first and pass it along
+        int index = resolveUpvalue(function - 1, name);
+        if (index < 0) return -1;
+        return addUpvalue(inner, -1, index);
+    }
+
+    private int addUpvalue(FunctionScope function, int depth, int slot) {
+        for (int i = 0; i < function.upvalueDepths.size(); i++) {
+            if (function.upvalueDepths.get(i) == depth && function.upvalueSlots.get(i) == slot) return i;
+        }
+
+        function.upvalueDepths.add(depth);
+        function.upvalueSlots.add(slot);
+        return function.upvalueDepths.size() - 1;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        FunctionScope scope = new FunctionScope(scopes.size());
+        functions.push(scope);
 
         beginScope();
+        // Methods get the instance they're called on in slot 0, ahead of the parameters
+        boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        if (isMethod) declareHidden("this");
         for (Token param : function.params) {
             declare(param);
             define(param); 
         } 
         resolve(function.body);
+
+        // The parameter slots come first, the body's own declarations are flagged by endScope()
+        function.capturedParams = new boolean[function.params.size() + (isMethod ? 1 : 0)];
+        for (Local local : scopes.peek().values()) {
+            if (local.slot < function.capturedParams.length) {
+                function.capturedParams[local.slot] = local.captured;
+            }
+        }
         endScope();
+
+        function.upvalueDepths = toArray(scope.upvalueDepths);
+        function.upvalueSlots = toArray(scope.upvalueSlots);
+        functions.pop();
         currentFunction = enclosingFunction;
     }
 
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
 }
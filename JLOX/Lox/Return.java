@@ -1,10 +1,11 @@
 package JLOX.Lox;
 
-class Return extends RuntimeException {
+// What a return statement completes with, unless it's a tail call. Every other statement completes with null,
+// so blocks, loops and ifs hand a non-null completion straight up to the call instead of unwinding with an exception
+class Return {
     final Object value;
     
     Return(Object value) {
-        super(null, null, false, false);
         this.value = value;
     }
 
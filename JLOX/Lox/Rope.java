@@ -0,0 +1,105 @@
+package JLOX.Lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A Lox string made by '+' that hasn't been copied into one String yet. Strings at runtime are
+// either a plain String or a Rope, so anything that needs the characters goes through toString(),
+// which flattens the rope once and keeps the result. Building a string with s = s + "..." in a loop
+// then costs one copy when it's printed or compared, not one per iteration
+final class Rope implements CharSequence {
+  // Below this, copying is cheaper than keeping the pieces around
+  private static final int MIN_LENGTH = 128;
+
+  // Strings or Ropes, both null once flattened. Tasks can share a rope, so they're only read and
+  // cleared while holding its lock, and a task flattening it never sees another one half way through
+  private CharSequence left;
+  private CharSequence right;
+  private final int length;
+  private volatile String flat;
+
+  private Rope(CharSequence left, CharSequence right) {
+    this.left = left;
+    this.right = right;
+    this.length = left.length() + right.length();
+  }
+
+  // What '+' does with two strings
+  static CharSequence concat(CharSequence left, CharSequence right) {
+    if (left instanceof String && right instanceof String && left.length() + right.length() < MIN_LENGTH) {
+      return (String)left + (String)right;
+    }
+    if (left.length() == 0) return right;
+    if (right.length() == 0) return left;
+    return new Rope(left, right);
+  }
+
+  @Override
+  public String toString() {
+    String flat = this.flat;
+    if (flat != null) return flat;
+
+    // Ropes built in a loop are as deep as the loop ran, so this walks them with its own stack
+    StringBuilder builder = new StringBuilder(length);
+    Deque<CharSequence> pending = new ArrayDeque<>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      CharSequence piece = pending.pop();
+      if (!(piece instanceof Rope)) {
+        builder.append(piece.toString());
+        continue;
+      }
+
+      Rope rope = (Rope)piece;
+      CharSequence left, right;
+      synchronized (rope) {
+        flat = rope.flat;
+        left = rope.left;
+        right = rope.right;
+      }
+      if (flat != null) {
+        builder.append(flat);
+      } else {
+        pending.push(right);
+        pending.push(left);
+      }
+    }
+
+    flat = builder.toString();
+    synchronized (this) {
+      this.flat = flat;
+      this.left = null;
+      this.right = null;
+    }
+    return flat;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return toString().charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  // Equal to any Lox string with the same characters, whichever form it's in
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) return true;
+    if (!(other instanceof CharSequence) || ((CharSequence)other).length() != length) return false;
+    return toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+}
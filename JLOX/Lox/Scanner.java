@@ -4,16 +4,38 @@ import static JLOX.Lox.TokenType.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+// Works on any CharSequence, so a file can be scanned straight out of its bytes (see Source).
+// Nothing is copied out of the source per token: punctuation has constant lexemes, names and
+// string literals are looked up in place and only made into a String the first time they're seen,
+// and numbers are parsed from the characters where they are. It's also an Iterator, so the Parser
+// can pull tokens as it needs them instead of having everything scanned first
+class Scanner implements Iterator<Token> {
+  private final CharSequence source;
+  // Where errors are reported
+  private final LoxContext context;
+  // What scanToken() found, it stays null for whitespace and comments
+  private Token token;
+  private boolean finished = false;
   private int start = 0;
   private int current = 0; 
   private int line = 1;
   private static final Map<String, TokenType> keywords;
+  // The lexemes of the tokens that are always spelled the same, by TokenType ordinal
+  private static final String[] lexemes = new String[TokenType.values().length];
+  // Exact powers of ten, a double holds all of them without rounding
+  private static final double[] powersOfTen = new double[23];
+
+  // Every name and string literal seen so far, an open addressing table so a lookup doesn't need a
+  // String to look up with. They're interned, so the same text is the same String across scans too.
+  // It starts over once it's this full: a script streamed with --stream can have any number of
+  // different literals, and what the table forgets is still the same String from intern()
+  private static final int MAX_NAMES = 1 << 16;
+  private String[] names = new String[256];
+  private int nameCount = 0;
 
   // Gets invoked when class is loaded by classloader
   static {
@@ -34,21 +56,62 @@ class Scanner {
     keywords.put("true",   TRUE);
     keywords.put("var",    VAR);
     keywords.put("while",  WHILE);
+
+    lexemes[LEFT_PAREN.ordinal()] =    "(";
+    lexemes[RIGHT_PAREN.ordinal()] =   ")";
+    lexemes[LEFT_BRACE.ordinal()] =    "{";
+    lexemes[RIGHT_BRACE.ordinal()] =   "}";
+    lexemes[COMMA.ordinal()] =         ",";
+    lexemes[DOT.ordinal()] =           ".";
+    lexemes[MINUS.ordinal()] =         "-";
+    lexemes[PLUS.ordinal()] =          "+";
+    lexemes[SEMICOLON.ordinal()] =     ";";
+    lexemes[SLASH.ordinal()] =         "/";
+    lexemes[STAR.ordinal()] =          "*";
+    lexemes[BANG.ordinal()] =          "!";
+    lexemes[BANG_EQUAL.ordinal()] =    "!=";
+    lexemes[EQUAL.ordinal()] =         "=";
+    lexemes[EQUAL_EQUAL.ordinal()] =   "==";
+    lexemes[GREATER.ordinal()] =       ">";
+    lexemes[GREATER_EQUAL.ordinal()] = ">=";
+    lexemes[LESS.ordinal()] =          "<";
+    lexemes[LESS_EQUAL.ordinal()] =    "<=";
+
+    powersOfTen[0] = 1;
+    for (int i = 1; i < powersOfTen.length; i++) powersOfTen[i] = powersOfTen[i - 1] * 10;
   }
 
-  Scanner(String source) {
+  Scanner(CharSequence source, LoxContext context) {
     this.source = source;
+    this.context = context;
   }
 
   List<Token> scanTokens() {
-    while (!isAtEnd()) {
+    List<Token> tokens = new ArrayList<>();
+    while (hasNext()) {
+      tokens.add(next());
+    }
+    return tokens;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !finished;
+  }
+
+  @Override
+  public Token next() {
+    token = null;
+    while (token == null) {
+      if (isAtEnd()) {
+        // EOF - End Of Line, always the last token
+        finished = true;
+        return new Token(EOF, "", null, line);
+      }
       start = current;
       scanToken();
     }
-
-    // EOF - End Of Line 
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+    return token;
   }
 
   private void scanToken() {
@@ -106,7 +169,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          context.error(line, "Unexpected character.");
         }
         break;
     }
@@ -137,14 +200,58 @@ class Scanner {
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    // Only used for punctuation and operators, which are always spelled the same
+    token = new Token(type, lexemes[type.ordinal()], null, line);
   }
 
   private void addToken(TokenType type, Object literal) {
-    // Substring - non inclusive end 
-    String text = source.substring(start, current);
-    // The 'text' is the lexeme as defined in the Token.java class  
-    tokens.add(new Token(type, text, literal, line));
+    // The lexeme is only made from the source if an error message needs it
+    token = new Token(type, source, start, current - start, literal, line);
+  }
+
+  // The String for the source's characters from 'from' up to 'to', the same one every time
+  private String name(int from, int to) {
+    // Hashed like String.hashCode(), so a candidate's cached hash can rule it out without comparing
+    int hash = 0;
+    for (int i = from; i < to; i++) hash = 31 * hash + source.charAt(i);
+
+    int mask = names.length - 1;
+    int index = hash & mask;
+    for (String name = names[index]; name != null; name = names[index]) {
+      if (name.hashCode() == hash && matches(name, from, to)) return name;
+      index = (index + 1) & mask;
+    }
+
+    String name = source.subSequence(from, to).toString().intern();
+    names[index] = name;
+    if (++nameCount * 2 > names.length) growNames();
+    return name;
+  }
+
+  private boolean matches(String name, int from, int to) {
+    if (name.length() != to - from) return false;
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != source.charAt(from + i)) return false;
+    }
+    return true;
+  }
+
+  private void growNames() {
+    if (nameCount >= MAX_NAMES) {
+      names = new String[names.length];
+      nameCount = 0;
+      return;
+    }
+
+    String[] old = names;
+    names = new String[old.length * 2];
+    int mask = names.length - 1;
+    for (String name : old) {
+      if (name == null) continue;
+      int index = name.hashCode() & mask;
+      while (names[index] != null) index = (index + 1) & mask;
+      names[index] = name;
+    }
   }
 
   private void string() {
@@ -155,7 +262,7 @@ class Scanner {
 
     if (isAtEnd()) {
       // var someString = "....... [missing end quote]
-      Lox.error(line, "Unterminated string.");
+      context.error(line, "Unterminated string.");
       return;
     }
 
@@ -163,7 +270,8 @@ class Scanner {
     advance();
 
     // Remove the ""
-    String value = source.substring(start + 1, current - 1);
+    // Interned, so the same literal is the same String everywhere and comparing them is a reference check
+    String value = name(start + 1, current - 1);
     addToken(STRING, value);
     
 
@@ -174,16 +282,32 @@ class Scanner {
   }
 
   private void number() {
-    while (isDigit(peek())) advance();
+    // The digits are collected as one integer, with the decimal point left out
+    long digits = source.charAt(start) - '0';
+    int count = 1;
+    while (isDigit(peek())) {
+      digits = digits * 10 + (advance() - '0');
+      count++;
+    }
     
     // Checking if the next char is a ., and at the same time if a digit is right after it 
+    int decimals = 0;
     if (peek() == '.' && isDigit(peekNext())) {
       advance();
-      while (isDigit(peek())) advance();
+      while (isDigit(peek())) {
+        digits = digits * 10 + (advance() - '0');
+        count++;
+        decimals++;
+      }
     }
     
-    // String gets parsed to a double
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    // Up to 15 digits the integer is exact as a double, and so is the power of ten, so one division
+    // rounds the same way parsing the text would. Anything longer goes through the parser
+    if (count <= 15) {
+      addToken(NUMBER, digits / powersOfTen[decimals]);
+    } else {
+      addToken(NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
+    }
   } 
   
   private char peekNext() {
@@ -199,11 +323,12 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
     
-    String text = source.substring(start, current);
+    String text = name(start, current);
     // Check to see if the 'identifier' is actually a keyword/reserved word. Eg keywords: 'While', 'var', 'return' 
     TokenType type = keywords.get(text);
     if (type == null) type = IDENTIFIER;
-    addToken(type); 
+    // Interned, so every use of a name shares one String and the lookups by name compare by reference
+    token = new Token(type, text, null, line);
 
   }
   
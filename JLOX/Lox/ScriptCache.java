@@ -0,0 +1,79 @@
+package JLOX.Lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// Resolved scripts, saved by a hash of their source, so running an unchanged script again skips
+// scanning, parsing, resolving and optimizing. Each one is a file in the cache directory, in the
+// format AstWriter writes. The cache is only ever an optimization: a file that can't be read or
+// written is treated as not being there
+class ScriptCache {
+  private final Path directory;
+
+  ScriptCache(Path directory) {
+    this.directory = directory;
+  }
+
+  // SHA-256 of the source's bytes and the format version, in hex
+  String key(ByteBuffer source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new AssertionError(error);
+    }
+    digest.update((byte)AstWriter.VERSION);
+    digest.update(source.duplicate());
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  // Null when there's nothing usable cached
+  List<Stmt> load(String key, Environment globals) {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file(key)))) {
+      return new AstReader(in, globals).read();
+    } catch (IOException | RuntimeException error) {
+      // Not cached yet, written by another version, or damaged in a way the checks didn't catch
+      return null;
+    }
+  }
+
+  void save(String key, List<Stmt> statements) {
+    // Written to a file of its own and then moved into place, so processes running the same script
+    // at the same time never read one that's half written
+    Path temp = null;
+    try {
+      Files.createDirectories(directory);
+      temp = Files.createTempFile(directory, key, ".tmp");
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        new AstWriter(out).write(statements);
+      }
+      Files.move(temp, file(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException error) {
+      try {
+        if (temp != null) Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // Nothing more to do about it
+      }
+    }
+  }
+
+  private Path file(String key) {
+    return directory.resolve(key + ".loxc");
+  }
+
+}
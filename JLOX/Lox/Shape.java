@@ -0,0 +1,46 @@
+package JLOX.Lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout instances share instead of each carrying a map: which field lives at which index of
+// LoxInstance.fields. Adding a field moves an instance to the next shape, and instances of a class that
+// get their fields set in the same order end up sharing the same shapes
+class Shape {
+    final LoxClass klass;
+    private final Map<String, Integer> offsets;
+    // The shapes with one more field, made once and reused by every instance taking that step
+    private Map<String, Shape> transitions;
+
+    Shape(LoxClass klass) {
+        this(klass, new HashMap<>());
+    }
+
+    private Shape(LoxClass klass, Map<String, Integer> offsets) {
+        this.klass = klass;
+        this.offsets = offsets;
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    int offset(String name) {
+        Integer offset = offsets.get(name);
+        return offset == null ? -1 : offset;
+    }
+
+    // Tasks share the shapes of their instances' classes, so they take turns making the next one
+    synchronized Shape withField(String name) {
+        if (transitions == null) transitions = new HashMap<>();
+
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> offsets = new HashMap<>(this.offsets);
+            offsets.put(name, offsets.size());
+            next = new Shape(klass, offsets);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,178 @@
+package JLOX.Lox;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// A script's text as the Scanner reads it. ASCII is a char per byte in every charset scripts are
+// likely to be in, so a script that's all ASCII is scanned straight out of its (mapped) bytes and only
+// the lexemes the Scanner keeps are ever copied. Latin-1 is a char per byte too. The rest of UTF-8 is
+// decoded a block at a time as it's scanned, so a long script streamed with --stream never has more
+// than one block of it in memory. Anything else is decoded into a String first
+final class Source {
+
+  static CharSequence of(ByteBuffer bytes, Charset charset) {
+    if (charset.equals(StandardCharsets.ISO_8859_1)) return new Bytes(bytes);
+    if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+      if (isAscii(bytes)) return new Bytes(bytes);
+      // Stateless, so decoding can start over at the beginning of any block
+      if (charset.equals(StandardCharsets.UTF_8)) return new Blocks(bytes, charset);
+    }
+
+    byte[] array = new byte[bytes.remaining()];
+    bytes.duplicate().get(array);
+    return new String(array, charset);
+  }
+
+  private static boolean isAscii(ByteBuffer bytes) {
+    int start = bytes.position();
+    int end = bytes.limit();
+    int i = start;
+    // Eight at a time, a byte with its top bit set isn't ASCII
+    for (; i + 8 <= end; i += 8) {
+      if ((bytes.getLong(i) & 0x8080808080808080L) != 0) return false;
+    }
+    for (; i < end; i++) {
+      if (bytes.get(i) < 0) return false;
+    }
+    return true;
+  }
+
+  private Source() {}
+
+  // Each byte is the char with the same value
+  private static final class Bytes implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int start;
+    private final int length;
+
+    Bytes(ByteBuffer bytes) {
+      this.bytes = bytes;
+      this.start = bytes.position();
+      this.length = bytes.remaining();
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char)(bytes.get(start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      byte[] chars = new byte[to - from];
+      bytes.get(start + from, chars);
+      return new String(chars, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length).toString();
+    }
+  }
+
+  // Decoded a block of chars at a time, as they're read. Where each block starts is found with one pass
+  // over the bytes up front, which also gives the length, so any block can be decoded again on its own
+  // for a lexeme that's wanted after the Scanner has moved past it. Only the thread scanning reads it
+  private static final class Blocks implements CharSequence {
+    private static final int SIZE = 1 << 16;
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final int length;
+    // Where each block starts, in chars and in bytes
+    private int[] charStarts = new int[16];
+    private int[] byteStarts = new int[16];
+    private int blocks = 0;
+
+    // The block decoded last, its chars are 'start' up to 'end'
+    private final char[] chars = new char[SIZE];
+    private int block = -1;
+    private int start = 0;
+    private int end = 0;
+
+    Blocks(ByteBuffer bytes, Charset charset) {
+      this.bytes = bytes;
+      // What String and Charset.decode() do with bytes that aren't UTF-8
+      decoder = charset.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+      ByteBuffer in = bytes.duplicate();
+      CharBuffer out = CharBuffer.wrap(chars);
+      int count = 0;
+      for (boolean more = in.hasRemaining(); more; ) {
+        if (blocks == charStarts.length) {
+          charStarts = Arrays.copyOf(charStarts, blocks * 2);
+          byteStarts = Arrays.copyOf(byteStarts, blocks * 2);
+        }
+        charStarts[blocks] = count;
+        byteStarts[blocks] = in.position();
+        blocks++;
+
+        out.clear();
+        // Overflow is a full block, underflow is the end of the input
+        more = decoder.decode(in, out, true).isOverflow();
+        if (!more) decoder.flush(out);
+        count += out.position();
+      }
+      decoder.reset();
+      length = count;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < start || index >= end) load(index);
+      return chars[index - start];
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      StringBuilder text = new StringBuilder(to - from);
+      for (int i = from; i < to; i++) text.append(charAt(i));
+      return text.toString();
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length).toString();
+    }
+
+    private void load(int index) {
+      if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+
+      // Mostly it's the next one
+      int next = block + 1;
+      if (!(next < blocks && charStarts[next] <= index && (next + 1 == blocks || index < charStarts[next + 1]))) {
+        next = Arrays.binarySearch(charStarts, 0, blocks, index);
+        if (next < 0) next = -next - 2;
+      }
+
+      ByteBuffer in = bytes.duplicate();
+      in.position(byteStarts[next]);
+      if (next + 1 < blocks) in.limit(byteStarts[next + 1]);
+      CharBuffer out = CharBuffer.wrap(chars);
+      decoder.decode(in, out, true);
+      decoder.flush(out);
+      decoder.reset();
+
+      block = next;
+      start = charStarts[next];
+      end = start + out.position();
+    }
+  }
+
+}
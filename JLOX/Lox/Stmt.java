@@ -41,6 +41,7 @@ abstract class Stmt {
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    boolean captured;
   }
  static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -69,6 +70,12 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    boolean captured;
+    boolean[] capturedParams;
+    int[] upvalueDepths;
+    int[] upvalueSlots;
+    int calls;
+    JitFunction compiled;
   }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -125,6 +132,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    boolean captured;
   }
  static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -0,0 +1,259 @@
+package JLOX.Lox;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+// The executable counterparts of Stmt
+abstract class StmtNode extends Node {
+  // Null, or what a return statement completed with, like the Interpreter's statements
+  abstract Object execute(Frame frame);
+
+  static class Expression extends StmtNode {
+    private ExprNode expression;
+
+    Expression(ExprNode expression) {
+      this.expression = adopt(expression);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      expression.executeVoid(frame);
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == expression) expression = (ExprNode)replacement;
+    }
+  }
+
+  static class Print extends StmtNode {
+    private ExprNode expression;
+    private final PrintStream out;
+
+    Print(ExprNode expression, PrintStream out) {
+      this.expression = adopt(expression);
+      this.out = out;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      out.println(Interpreter.stringify(expression.execute(frame)));
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == expression) expression = (ExprNode)replacement;
+    }
+  }
+
+  static class Block extends StmtNode {
+    // No new scope at runtime, the block's locals already have their own slots in the frame
+    private final StmtNode[] statements;
+
+    Block(StmtNode[] statements) {
+      this.statements = statements;
+      for (StmtNode statement : statements) adopt(statement);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      for (StmtNode statement : statements) {
+        Object completion = statement.execute(frame);
+        if (completion != null) return completion;
+      }
+      return null;
+    }
+  }
+
+  static class If extends StmtNode {
+    private ExprNode condition;
+    private final StmtNode thenBranch;
+    private final StmtNode elseBranch;
+
+    If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+      this.condition = adopt(condition);
+      this.thenBranch = adopt(thenBranch);
+      this.elseBranch = adopt(elseBranch);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      if (Interpreter.isTruthy(condition.execute(frame))) {
+        return thenBranch.execute(frame);
+      } else if (elseBranch != null) {
+        return elseBranch.execute(frame);
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == condition) condition = (ExprNode)replacement;
+    }
+  }
+
+  static class While extends StmtNode {
+    private ExprNode condition;
+    private final StmtNode body;
+
+    While(ExprNode condition, StmtNode body) {
+      this.condition = adopt(condition);
+      this.body = adopt(body);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      while (Interpreter.isTruthy(condition.execute(frame))) {
+        Object completion = body.execute(frame);
+        if (completion != null) return completion;
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == condition) condition = (ExprNode)replacement;
+    }
+  }
+
+  static class Return extends StmtNode {
+    private ExprNode value;
+    private final boolean tail;
+
+    Return(ExprNode value, boolean tail) {
+      this.value = adopt(value);
+      this.tail = tail;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      if (tail) return value.executeTail(frame);
+      return new JLOX.Lox.Return(value == null ? null : value.execute(frame));
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == value) value = (ExprNode)replacement;
+    }
+  }
+
+  // Declarations
+
+  static class DefineLocal extends StmtNode {
+    private final int slot;
+    private final boolean captured;
+    private ExprNode initializer;
+
+    DefineLocal(int slot, boolean captured, ExprNode initializer) {
+      this.slot = slot;
+      this.captured = captured;
+      this.initializer = adopt(initializer);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      if (captured) {
+        // The box goes in first, so a function that refers to itself captures it
+        Upvalue cell = new Upvalue(null);
+        frame.slots[slot] = cell;
+        if (initializer != null) cell.value = initializer.execute(frame);
+      } else {
+        frame.slots[slot] = initializer == null ? null : initializer.execute(frame);
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == initializer) initializer = (ExprNode)replacement;
+    }
+  }
+
+  static class DefineGlobal extends StmtNode {
+    private final String name;
+    private final Environment globals;
+    private ExprNode initializer;
+
+    DefineGlobal(String name, Environment globals, ExprNode initializer) {
+      this.name = name;
+      this.globals = globals;
+      this.initializer = adopt(initializer);
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      globals.define(name, initializer == null ? null : initializer.execute(frame));
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == initializer) initializer = (ExprNode)replacement;
+    }
+  }
+
+  static class Class extends StmtNode {
+    private final Stmt.Class declaration;
+    private ExprNode superclass;
+    // Where 'super' goes while the methods capture it
+    private final int superSlot;
+    private final ExprNode.Closure[] methods;
+    // Where the class itself goes: a frame slot, or the globals when it's -1
+    private final int slot;
+    private final Environment globals;
+
+    Class(Stmt.Class declaration, ExprNode superclass, int superSlot, ExprNode.Closure[] methods, int slot, Environment globals) {
+      this.declaration = declaration;
+      this.superclass = adopt(superclass);
+      this.superSlot = superSlot;
+      this.methods = methods;
+      for (ExprNode.Closure method : methods) adopt(method);
+      this.slot = slot;
+      this.globals = globals;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+      Object superclass = null;
+      if (this.superclass != null) {
+        superclass = this.superclass.execute(frame);
+        if (!(superclass instanceof LoxClass)) {
+          throw new RuntimeError(declaration.superclass.name, "Superclass must be a class.");
+        }
+        frame.slots[superSlot] = new Upvalue(superclass);
+      }
+
+      // Methods that refer to the class by name capture its variable, so the box has to exist before they do
+      Upvalue cell = null;
+      if (slot >= 0 && declaration.captured) {
+        cell = new Upvalue(null);
+        frame.slots[slot] = cell;
+      }
+
+      Map<String, LoxFunction> methods = new HashMap<>();
+      for (int i = 0; i < this.methods.length; i++) {
+        methods.put(declaration.methods.get(i).name.lexeme(), this.methods[i].execute(frame));
+      }
+
+      LoxClass klass = new LoxClass(declaration.name.lexeme(), (LoxClass)superclass, methods);
+
+      if (cell != null) {
+        cell.value = klass;
+      } else if (slot >= 0) {
+        frame.slots[slot] = klass;
+      } else {
+        globals.define(declaration.name.lexeme(), klass);
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node child, Node replacement) {
+      if (child == superclass) superclass = (ExprNode)replacement;
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+package JLOX.Lox;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// What spawn(fn) returns: fn running on a thread of its own. Tasks share the script's globals and
+// whatever their functions close over, and each one has an Interpreter of its own for its current
+// environment and call depth. join(task) waits for it and returns what fn returned, or fails with
+// fn's runtime error. The script's run waits for its tasks as long as any of them can still get
+// something done. Ones left waiting on a channel or a join that nothing is left to wake are stopped
+class Task {
+  // A virtual thread per task on JVMs that have them (21 and later), found by reflection since
+  // this is built for 17. Otherwise tasks share a pool of platform threads
+  private static final ExecutorService threads = executor();
+
+  private final LoxContext context;
+  // Set once the thread's started, for stopping it
+  private Future<?> thread;
+  // What fn returned or failed with, set once it has. Read and written holding the task's lock
+  private boolean finished = false;
+  private Object value;
+  private Throwable failure;
+  private final Waiters joiners = new Waiters();
+  // Whether a join() has seen it fail, LoxContext reports the errors nobody did
+  private volatile boolean joined = false;
+
+  private Task(LoxContext context) {
+    this.context = context;
+  }
+
+  static void define(Environment globals) {
+    globals.define("spawn", new Native(1, (interpreter, arguments) -> {
+      Object function = arguments.get(0);
+      if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0) {
+        throw new NativeError("Can only spawn functions that take no arguments.");
+      }
+      return spawn(interpreter, (LoxCallable)function);
+    }));
+
+    globals.define("join", new Native(1, (interpreter, arguments) -> {
+      if (!(arguments.get(0) instanceof Task)) {
+        throw new NativeError("Can only join tasks.");
+      }
+      return ((Task)arguments.get(0)).join();
+    }));
+  }
+
+  private static Task spawn(Interpreter parent, LoxCallable function) {
+    Interpreter interpreter = new Interpreter(parent);
+    Task task = new Task(parent.context);
+    // Running from now on, not from when its thread gets going
+    parent.context.resumed(1);
+    task.thread = threads.submit(() -> task.run(function, interpreter));
+    parent.context.tasks.add(task);
+    return task;
+  }
+
+  private void run(LoxCallable function, Interpreter interpreter) {
+    try {
+      finish(function.call(interpreter, new Object[0]), null);
+    } catch (Throwable error) {
+      finish(null, error);
+    } finally {
+      // Its joiners have been counted back in by now, so the count doesn't pass through 0 on the way
+      context.paused();
+    }
+  }
+
+  private synchronized void finish(Object value, Throwable failure) {
+    this.value = value;
+    this.failure = failure;
+    finished = true;
+    joiners.wakeAll(this, context);
+  }
+
+  private synchronized Object join() {
+    try {
+      while (!finished) joiners.await(this, context);
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new NativeError("Interrupted.");
+    }
+
+    if (failure == null) return value;
+    if (failure instanceof RuntimeError) joined = true;
+    throw rethrow(failure);
+  }
+
+  // The runtime error it failed with, null if it didn't. Only once it's done
+  synchronized RuntimeError error() {
+    if (failure == null || failure instanceof RuntimeError) return (RuntimeError)failure;
+    throw rethrow(failure);
+  }
+
+  synchronized boolean isDone() {
+    return finished;
+  }
+
+  boolean wasJoined() {
+    return joined;
+  }
+
+  // Interrupts whatever it's waiting for. It fails, but nobody's told
+  void cancel() {
+    thread.cancel(true);
+  }
+
+  // Anything but a RuntimeError is a bug in the interpreter, it goes on up as it is
+  private static RuntimeException rethrow(Throwable error) {
+    if (error instanceof RuntimeException) return (RuntimeException)error;
+    if (error instanceof Error) throw (Error)error;
+    return new IllegalStateException(error);
+  }
+
+  private static ExecutorService executor() {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException error) {
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        // Tasks still running when the prompt's input ends don't keep jlox from exiting
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+
+}
@@ -4,19 +4,43 @@ class Token {
     // The 'final' keyword in the contex of variables are used for declaring constants
 
     final TokenType type;
-    final String lexeme;
     final Object literal; // something like {Var-type : "value"}
     final int line;
+    // Where the lexeme is in the source, for the tokens whose lexeme is only needed for error
+    // messages. It's made into a String the first time it's asked for
+    private final CharSequence source;
+    private final int offset;
+    private final int length;
+    private String lexeme;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.source = null;
+        this.offset = 0;
+        this.length = lexeme.length();
+    }
+
+    Token(TokenType type, CharSequence source, int offset, int length, Object literal, int line) {
+        this.type = type;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.literal = literal;
+        this.line = line;
+    }
+
+    String lexeme() {
+        if (lexeme == null) {
+            lexeme = source.subSequence(offset, offset + length).toString();
+        }
+        return lexeme;
     }
 
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 
 }
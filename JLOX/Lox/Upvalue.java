@@ -0,0 +1,12 @@
+package JLOX.Lox;
+
+// A local variable that some closure refers to. The scope that declared it and every closure 
+// that captured it share this box, so a write through one is seen by all the others
+class Upvalue {
+  Object value;
+
+  Upvalue(Object value) {
+    this.value = value;
+  }
+
+}
@@ -0,0 +1,542 @@
+package JLOX.Lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs the BytecodeCompiler's output. Values live on one operand stack, each call's locals in its own
+// window of it, and calls push a CallFrame instead of recursing on the Java stack
+class VM {
+  // Shares the Interpreter's globals, so natives (and the REPL's earlier lines) are the same
+  private final Interpreter interpreter;
+  private Object[] stack = new Object[256];
+  private int top = 0;
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount = 0;
+
+  private static class CallFrame {
+    VMFunction function;
+    Chunk chunk;
+    int ip;
+    // Where the call's locals start, and where its result goes once it returns
+    int base;
+    int calleeSlot;
+    // 'this' for methods, which is also what an initializer returns
+    LoxInstance receiver;
+  }
+
+  VM(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  void interpret(List<Stmt> statements) {
+    VMFunction.Prototype script = new BytecodeCompiler().compile(statements);
+    try {
+      // The script has no callee, its locals start at the bottom of the stack
+      pushFrame(null, script.chunk, 0, 0, null);
+      run(0);
+    } catch (RuntimeError error) {
+      interpreter.context.runtimeError(error);
+    } finally {
+      top = 0;
+      frameCount = 0;
+    }
+  }
+
+  Object call(VMFunction function, LoxInstance receiver, Object[] arguments) {
+    // A call from outside the VM runs a loop of its own until that call returns
+    int calleeSlot = top;
+    push(function);
+    for (Object argument : arguments) {
+      push(argument);
+    }
+
+    int depth = frameCount;
+    callFunction(function, receiver, calleeSlot, receiver != null ? calleeSlot : calleeSlot + 1, arguments.length);
+    run(depth);
+    return stack[--top];
+  }
+
+  private Object run(int exitDepth) {
+    CallFrame frame = frames[frameCount - 1];
+    Chunk chunk = frame.chunk;
+    byte[] code = chunk.code;
+    List<Object> constants = chunk.constants;
+    int ip = frame.ip;
+    int base = frame.base;
+
+    for (;;) {
+      byte instruction = code[ip++];
+      switch (instruction) {
+        case OpCode.CONSTANT:
+          push(constants.get(chunk.operand(ip)));
+          ip += 2;
+          break;
+        case OpCode.NIL: push(null); break;
+        case OpCode.TRUE: push(true); break;
+        case OpCode.FALSE: push(false); break;
+        case OpCode.POP: top--; break;
+
+        case OpCode.GET_LOCAL:
+          push(stack[base + chunk.operand(ip)]);
+          ip += 2;
+          break;
+        case OpCode.SET_LOCAL:
+          stack[base + chunk.operand(ip)] = stack[top - 1];
+          ip += 2;
+          break;
+        case OpCode.GET_BOXED:
+          push(((Upvalue)stack[base + chunk.operand(ip)]).value);
+          ip += 2;
+          break;
+        case OpCode.SET_BOXED:
+          ((Upvalue)stack[base + chunk.operand(ip)]).value = stack[top - 1];
+          ip += 2;
+          break;
+        case OpCode.BOX:
+          stack[top - 1] = new Upvalue(stack[top - 1]);
+          break;
+        case OpCode.GET_UPVALUE:
+          push(frame.function.upvalues[chunk.operand(ip)].value);
+          ip += 2;
+          break;
+        case OpCode.SET_UPVALUE:
+          frame.function.upvalues[chunk.operand(ip)].value = stack[top - 1];
+          ip += 2;
+          break;
+        case OpCode.GET_GLOBAL:
+          push(interpreter.globals.getGlobal(chunk.operand(ip), (String)constants.get(chunk.operand(ip + 2)), chunk.lines[ip]));
+          ip += 4;
+          break;
+        case OpCode.SET_GLOBAL:
+          interpreter.globals.assignGlobal(chunk.operand(ip), (String)constants.get(chunk.operand(ip + 2)), chunk.lines[ip], stack[top - 1]);
+          ip += 4;
+          break;
+        case OpCode.DEFINE_GLOBAL:
+          interpreter.globals.define((String)constants.get(chunk.operand(ip)), stack[--top]);
+          ip += 2;
+          break;
+
+        case OpCode.GET_PROPERTY: {
+          InlineCache cache = chunk.caches[ip - 1];
+          String name = (String)constants.get(chunk.operand(ip));
+          ip += 2;
+          Object object = stack[top - 1];
+          if (!(object instanceof LoxInstance)) {
+            throw error(chunk, ip, "Only instances have properties.");
+          }
+          stack[top - 1] = cache.get((LoxInstance)object, name, chunk.lines[ip - 1]);
+          break;
+        }
+        case OpCode.SET_PROPERTY: {
+          InlineCache cache = chunk.caches[ip - 1];
+          String name = (String)constants.get(chunk.operand(ip));
+          ip += 2;
+          Object object = stack[top - 2];
+          if (!(object instanceof LoxInstance)) {
+            throw error(chunk, ip, "Only instances have fields.");
+          }
+          Object value = stack[top - 1];
+          cache.set((LoxInstance)object, name, chunk.lines[ip - 1], value);
+          stack[top - 2] = value;
+          top--;
+          break;
+        }
+        case OpCode.CHECK_INSTANCE:
+          ip += 2;
+          if (!(stack[top - 1] instanceof LoxInstance)) {
+            throw error(chunk, ip, "Only instances have fields.");
+          }
+          break;
+        case OpCode.GET_SUPER: {
+          String name = (String)constants.get(chunk.operand(ip));
+          LoxClass superclass = (LoxClass)frame.function.upvalues[chunk.operand(ip + 2)].value;
+          ip += 4;
+          LoxFunction method = superclass.findMethod(name);
+          if (method == null) {
+            throw error(chunk, ip, "Undefined property '" + name + "'.");
+          }
+          stack[top - 1] = method.bind((LoxInstance)stack[top - 1]);
+          break;
+        }
+
+        case OpCode.EQUAL:
+          stack[top - 2] = Interpreter.isEqual(stack[top - 2], stack[top - 1]);
+          top--;
+          break;
+        case OpCode.NOT_EQUAL:
+          stack[top - 2] = !Interpreter.isEqual(stack[top - 2], stack[top - 1]);
+          top--;
+          break;
+        case OpCode.GREATER:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] > (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.GREATER_EQUAL:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] >= (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.LESS:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] < (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.LESS_EQUAL:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] <= (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.ADD: {
+          Object left = stack[top - 2];
+          Object right = stack[top - 1];
+          if (left instanceof Double && right instanceof Double) {
+            stack[top - 2] = (double)left + (double)right;
+          } else if (left instanceof CharSequence && right instanceof CharSequence) {
+            stack[top - 2] = Rope.concat((CharSequence)left, (CharSequence)right);
+          } else {
+            throw error(chunk, ip, "Operants must be two numbers or two strings.");
+          }
+          top--;
+          break;
+        }
+        case OpCode.SUBTRACT:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] - (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.MULTIPLY:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] * (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.DIVIDE:
+          checkNumbers(chunk, ip);
+          stack[top - 2] = (double)stack[top - 2] / (double)stack[top - 1];
+          top--;
+          break;
+        case OpCode.NOT:
+          stack[top - 1] = !Interpreter.isTruthy(stack[top - 1]);
+          break;
+        case OpCode.NEGATE:
+          if (!(stack[top - 1] instanceof Double)) {
+            throw error(chunk, ip, "Operand must be a number.");
+          }
+          stack[top - 1] = -(double)stack[top - 1];
+          break;
+
+        case OpCode.PRINT:
+          interpreter.context.out.println(Interpreter.stringify(stack[--top]));
+          break;
+        case OpCode.JUMP:
+          ip += 2 + chunk.operand(ip);
+          break;
+        case OpCode.JUMP_IF_FALSE:
+          ip += Interpreter.isTruthy(stack[top - 1]) ? 2 : 2 + chunk.operand(ip);
+          break;
+        case OpCode.JUMP_IF_TRUE:
+          ip += Interpreter.isTruthy(stack[top - 1]) ? 2 + chunk.operand(ip) : 2;
+          break;
+        case OpCode.LOOP:
+          ip -= chunk.operand(ip) - 2;
+          break;
+
+        case OpCode.CALL: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          if (callValue(top - argCount - 1, argCount, ip)) {
+            // Continue in the callee's frame
+            frame = frames[frameCount - 1];
+            chunk = frame.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+          }
+          break;
+        }
+        case OpCode.GET_METHOD: {
+          InlineCache cache = chunk.caches[ip - 1];
+          String name = (String)constants.get(chunk.operand(ip));
+          ip += 2;
+          Object object = stack[top - 1];
+          if (!(object instanceof LoxInstance)) {
+            throw error(chunk, ip, "Only instances have properties.");
+          }
+
+          LoxInstance instance = (LoxInstance)object;
+          int line = chunk.lines[ip - 1];
+          LoxFunction method = cache.findMethod(instance, name, line);
+          if (method != null) {
+            stack[top - 1] = method;
+            push(instance);
+          } else {
+            stack[top - 1] = cache.get(instance, name, line);
+            push(null);
+          }
+          break;
+        }
+        case OpCode.INVOKE: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          int calleeSlot = top - argCount - 2;
+          LoxInstance receiver = (LoxInstance)stack[calleeSlot + 1];
+
+          boolean pushed;
+          if (receiver != null) {
+            // The receiver is already where the method's 'this' goes
+            callFunction((VMFunction)stack[calleeSlot], receiver, calleeSlot, calleeSlot + 1, argCount);
+            pushed = true;
+          } else {
+            // A field's value, called like any other, once the receiver's place is closed up
+            System.arraycopy(stack, calleeSlot + 2, stack, calleeSlot + 1, argCount);
+            top--;
+            pushed = callValue(calleeSlot, argCount, ip);
+          }
+
+          if (pushed) {
+            frame = frames[frameCount - 1];
+            chunk = frame.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+          }
+          break;
+        }
+        case OpCode.TAIL_CALL: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          int calleeSlot = top - argCount - 1;
+          Object callee = stack[calleeSlot];
+
+          if (callee instanceof VMFunction && ((VMFunction)callee).arity() == argCount) {
+            VMFunction function = (VMFunction)callee;
+            tailCall(function, function.receiver, calleeSlot, function.receiver != null ? 0 : 1, argCount);
+          } else if (!callValue(calleeSlot, argCount, ip)) {
+            // The result's on the stack for the RETURN after this
+            break;
+          }
+
+          frame = frames[frameCount - 1];
+          chunk = frame.chunk;
+          code = chunk.code;
+          constants = chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.TAIL_INVOKE: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          int calleeSlot = top - argCount - 2;
+          LoxInstance receiver = (LoxInstance)stack[calleeSlot + 1];
+          VMFunction method = receiver != null ? (VMFunction)stack[calleeSlot] : null;
+
+          if (method != null && method.arity() == argCount) {
+            tailCall(method, receiver, calleeSlot, 1, argCount);
+          } else if (method != null) {
+            // Only to report the wrong number of arguments
+            callFunction(method, receiver, calleeSlot, calleeSlot + 1, argCount);
+          } else {
+            System.arraycopy(stack, calleeSlot + 2, stack, calleeSlot + 1, argCount);
+            top--;
+            Object callee = stack[calleeSlot];
+            if (callee instanceof VMFunction && ((VMFunction)callee).arity() == argCount) {
+              VMFunction function = (VMFunction)callee;
+              tailCall(function, function.receiver, calleeSlot, function.receiver != null ? 0 : 1, argCount);
+            } else if (!callValue(calleeSlot, argCount, ip)) {
+              break;
+            }
+          }
+
+          frame = frames[frameCount - 1];
+          chunk = frame.chunk;
+          code = chunk.code;
+          constants = chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.CLOSURE: {
+          VMFunction.Prototype prototype = (VMFunction.Prototype)constants.get(chunk.operand(ip));
+          ip += 2;
+          Upvalue[] upvalues = new Upvalue[prototype.captures.length];
+          for (int i = 0; i < upvalues.length; i++) {
+            int index = prototype.captures[i];
+            upvalues[i] = prototype.fromSlot[i] ? (Upvalue)stack[base + index] : frame.function.upvalues[index];
+          }
+          push(new VMFunction(prototype, upvalues, null));
+          break;
+        }
+        case OpCode.RETURN: {
+          Object result = stack[--top];
+          if (frame.function != null && frame.function.isInitializer) {
+            result = frame.receiver;
+          }
+
+          frameCount--;
+          top = frame.calleeSlot;
+          push(result);
+          if (frameCount == exitDepth) return result;
+
+          frame = frames[frameCount - 1];
+          chunk = frame.chunk;
+          code = chunk.code;
+          constants = chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.CLASS: {
+          String name = (String)constants.get(chunk.operand(ip));
+          int methodCount = chunk.operand(ip + 2);
+          boolean inherits = code[ip + 4] != 0;
+          int superSlot = chunk.operand(ip + 5);
+          ip += 7;
+
+          Map<String, LoxFunction> methods = new HashMap<>();
+          for (int i = top - methodCount; i < top; i++) {
+            VMFunction method = (VMFunction)stack[i];
+            methods.put(method.declaration.name.lexeme(), method);
+          }
+          top -= methodCount;
+
+          LoxClass superclass = null;
+          if (inherits) {
+            superclass = (LoxClass)((Upvalue)stack[base + superSlot]).value;
+          }
+          push(new LoxClass(name, superclass, methods));
+          break;
+        }
+        case OpCode.CHECK_SUPERCLASS:
+          if (!(stack[top - 1] instanceof LoxClass)) {
+            throw error(chunk, ip, "Superclass must be a class.");
+          }
+          break;
+
+        default:
+          throw new IllegalStateException("Unknown opcode " + instruction + ".");
+      }
+    }
+  }
+
+  // Calls whatever is in 'calleeSlot' with the 'argCount' values above it. Returns true if that
+  // pushed a new frame for the run loop to continue in, otherwise the result already replaced the callee
+  private boolean callValue(int calleeSlot, int argCount, int ip) {
+    Object callee = stack[calleeSlot];
+
+    if (callee instanceof VMFunction) {
+      VMFunction function = (VMFunction)callee;
+      int base = function.receiver != null ? calleeSlot : calleeSlot + 1;
+      callFunction(function, function.receiver, calleeSlot, base, argCount);
+      return true;
+    }
+
+    if (callee instanceof LoxClass) {
+      LoxClass klass = (LoxClass)callee;
+      if (klass.initializer instanceof VMFunction) {
+        callFunction((VMFunction)klass.initializer, new LoxInstance(klass), calleeSlot, calleeSlot, argCount);
+        return true;
+      }
+    }
+
+    if (!(callee instanceof LoxCallable)) {
+      throw error(frames[frameCount - 1].chunk, ip, "Can only call functions and classes.");
+    }
+
+    // Natives, and classes without an initializer
+    LoxCallable function = (LoxCallable)callee;
+    if (argCount != function.arity()) {
+      throw error(frames[frameCount - 1].chunk, ip, "Expected " + function.arity() + " arguments but got " + argCount + ".");
+    }
+
+    Object[] arguments = Arrays.copyOfRange(stack, calleeSlot + 1, calleeSlot + 1 + argCount);
+    Object result;
+    try {
+      result = function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw error(frames[frameCount - 1].chunk, ip, error.getMessage());
+    }
+    top = calleeSlot;
+    push(result);
+    return false;
+  }
+
+  // A method's 'this' goes in slot 0, at 'base'. Unless the receiver was already pushed, that's the
+  // callee's own place. A plain function's locals start right at its first argument
+  private void callFunction(VMFunction function, LoxInstance receiver, int calleeSlot, int base, int argCount) {
+    // Calls from outside the VM have had their arity checked already, a task's first call has no caller here
+    if (argCount != function.arity()) {
+      CallFrame caller = frames[frameCount - 1];
+      throw error(caller.chunk, caller.ip, "Expected " + function.arity() + " arguments but got " + argCount + ".");
+    }
+    if (frameCount == interpreter.maxDepth) {
+      CallFrame caller = frames[frameCount - 1];
+      throw error(caller.chunk, caller.ip, "Stack overflow.");
+    }
+
+    if (receiver != null) stack[base] = receiver;
+
+    boolean[] captured = function.declaration.capturedParams;
+    for (int i = 0; i < captured.length; i++) {
+      if (captured[i]) stack[base + i] = new Upvalue(stack[base + i]);
+    }
+
+    pushFrame(function, function.prototype.chunk, base, calleeSlot, receiver);
+  }
+
+  // The callee at 'calleeSlot' and everything above it is moved down to where the returning call's callee
+  // was, and the callee's frame replaces that call's. 'base' is where its locals start, from its own slot.
+  // Its arity has been checked, and the stack doesn't grow however long a chain of these is
+  private void tailCall(VMFunction function, LoxInstance receiver, int calleeSlot, int base, int argCount) {
+    int into = frames[frameCount - 1].calleeSlot;
+    int count = top - calleeSlot;
+    System.arraycopy(stack, calleeSlot, stack, into, count);
+    Arrays.fill(stack, into + count, top, null);
+    top = into + count;
+
+    frameCount--;
+    callFunction(function, receiver, into, into + base, argCount);
+  }
+
+  private void pushFrame(VMFunction function, Chunk chunk, int base, int calleeSlot, LoxInstance receiver) {
+    if (frameCount == frames.length) {
+      frames = Arrays.copyOf(frames, frameCount * 2);
+    }
+    // Frames are reused, a deep call only allocates them the first time
+    CallFrame frame = frames[frameCount];
+    if (frame == null) {
+      frame = new CallFrame();
+      frames[frameCount] = frame;
+    }
+    frameCount++;
+
+    frame.function = function;
+    frame.chunk = chunk;
+    frame.ip = 0;
+    frame.base = base;
+    frame.calleeSlot = calleeSlot;
+    frame.receiver = receiver;
+  }
+
+  private void push(Object value) {
+    if (top == stack.length) {
+      stack = Arrays.copyOf(stack, top * 2);
+    }
+    stack[top++] = value;
+  }
+
+  private void checkNumbers(Chunk chunk, int ip) {
+    if (stack[top - 2] instanceof Double && stack[top - 1] instanceof Double) return;
+    throw error(chunk, ip, "Operands must be numbers.");
+  }
+
+  private static RuntimeError error(Chunk chunk, int ip, String message) {
+    // The instruction that failed is the last one read, its line is all the error report needs
+    return new RuntimeError(new Token(TokenType.EOF, "", null, chunk.lines[ip - 1]), message);
+  }
+
+}
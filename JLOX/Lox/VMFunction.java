@@ -0,0 +1,44 @@
+package JLOX.Lox;
+
+// A Lox function run by the bytecode VM. Like NodeFunction it's a LoxFunction, so classes,
+// binding and arity are shared, only the body is a Chunk of bytecode
+class VMFunction extends LoxFunction {
+  final Prototype prototype;
+
+  // What the BytecodeCompiler turns a function declaration (or the whole script) into
+  static class Prototype {
+    final Stmt.Function declaration;
+    final Chunk chunk;
+    final boolean isInitializer;
+    // Where each upvalue comes from when the closure is made: a boxed slot of the
+    // enclosing frame, or when 'fromSlot' is false, one of the enclosing function's own upvalues
+    final int[] captures;
+    final boolean[] fromSlot;
+
+    Prototype(Stmt.Function declaration, Chunk chunk, boolean isInitializer, int[] captures, boolean[] fromSlot) {
+      this.declaration = declaration;
+      this.chunk = chunk;
+      this.isInitializer = isInitializer;
+      this.captures = captures;
+      this.fromSlot = fromSlot;
+    }
+  }
+
+  VMFunction(Prototype prototype, Upvalue[] upvalues, LoxInstance receiver) {
+    super(prototype.declaration, upvalues, prototype.isInitializer, receiver);
+    this.prototype = prototype;
+  }
+
+  @Override
+  LoxFunction bind(LoxInstance instance) {
+    return new VMFunction(prototype, upvalues, instance);
+  }
+
+  @Override
+  Object call(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+    // Calls from inside the VM never get here, this is for callers outside of it. Each task
+    // has a VM of its own, so it's the caller's
+    return interpreter.vm().call(this, receiver, arguments);
+  }
+
+}
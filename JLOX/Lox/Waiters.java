@@ -0,0 +1,39 @@
+package JLOX.Lox;
+
+// The threads waiting on a channel or a task. They're counted out of the script's running ones while
+// they wait, and whoever wakes them counts them back in before letting go of the lock, so the count
+// only reaches 0 once nothing's left that could ever wake them. All of it is done holding the lock
+// of the channel or task that's waited on
+class Waiters {
+  private int waiting = 0;
+  // Goes up each time they're all woken, a waiter that wakes up before it has was woken by nobody
+  private long wakeups = 0;
+
+  void await(Object lock, LoxContext context) throws InterruptedException {
+    long round = wakeups;
+    waiting++;
+    context.paused();
+    try {
+      do {
+        lock.wait();
+      } while (round == wakeups);
+    } catch (InterruptedException error) {
+      // Nobody counted it back in yet
+      if (round == wakeups) {
+        waiting--;
+        context.resumed(1);
+      }
+      throw error;
+    }
+  }
+
+  // Whatever they were waiting for may have happened, they all check again
+  void wakeAll(Object lock, LoxContext context) {
+    if (waiting == 0) return;
+    context.resumed(waiting);
+    waiting = 0;
+    wakeups++;
+    lock.notifyAll();
+  }
+
+}
@@ -15,31 +15,41 @@ public class GenerateAst {
     }
     String outputDir = args[0];
 
+    // Fields after the '|' aren't constructor parameters. They're filled in later by the Resolver,
+    // or while running for the property sites' caches.
+    // A variable is either a local of the current function (depth >= 0), one captured from an enclosing
+    // function (upvalue >= 0) or, when both are -1, a global in slot 'global'. 'captured' locals live in an Upvalue box
     defineAst(outputDir, "Expr", Arrays.asList(
-      "Assign : Token name, Expr value",
+      "Assign : Token name, Expr value | int depth = -1, int slot, int upvalue = -1, boolean captured, int global = -1",
       "Binary   : Expr left, Token operator, Expr right",
-      "Call     : Expr callee, Token paren, List<Expr> arguments",
-      "Get      : Expr object, Token name",
+      "Call     : Expr callee, Token paren, List<Expr> arguments | boolean tail",
+      "Get      : Expr object, Token name | InlineCache cache = new InlineCache()",
       "Grouping : Expr expression",
       "Literal  : Object value",
       "Logical  : Expr left, Token operator, Expr right",
-      "Set      : Expr object, Token name, Expr value",
-      "Super    : Token keyword, Token method",
-      "This     : Token keyword",
+      "Set      : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+      "Super    : Token keyword, Token method | int upvalue = -1, Expr.This receiver",
+      "This     : Token keyword | int depth = -1, int slot, int upvalue = -1, boolean captured",
       "Unary    : Token operator, Expr right",
-      "Variable : Token name"
+      "Variable : Token name | int depth = -1, int slot, int upvalue = -1, boolean captured, int global = -1"
     ));
 
+    // For declarations, 'captured' says whether a closure refers to the variable, so it must be boxed.
+    // A function also gets which of its parameter slots are captured and where to find its upvalues
+    // when the closure is created: a slot in the enclosing function's environment (depth >= 0) or,
+    // for a depth of -1, one of the enclosing function's own upvalues
     defineAst(outputDir, "Stmt", Arrays.asList(
       "Block : List<Stmt> statements",
       "Class      : Token name, Expr.Variable superclass," +
-                  " List<Stmt.Function> methods",
+                  " List<Stmt.Function> methods | boolean captured",
       "Expression : Expr expression",
-      "Function   : Token name, List<Token> params," + " List<Stmt> body",
+      "Function   : Token name, List<Token> params," + " List<Stmt> body" +
+                  " | boolean captured, boolean[] capturedParams, int[] upvalueDepths, int[] upvalueSlots," +
+                  " int calls, JitFunction compiled",
       "If         : Expr condition, Stmt thenBranch," + " Stmt elseBranch",
       "Print      : Expr expression",
       "Return     : Token keyword, Expr value",
-      "Var        : Token name, Expr initializer",
+      "Var        : Token name, Expr initializer | boolean captured",
       "While      : Expr condition, Stmt body"
     ));
 
@@ -60,7 +70,12 @@ public class GenerateAst {
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String resolved = null;
+      if (fields.contains("|")) {
+        resolved = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      defineType(writer, baseName, className, fields, resolved);
     }
     
     // The base accept method
@@ -72,7 +87,7 @@ public class GenerateAst {
 
   }
   
-  private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+  private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String resolvedList) {
     writer.println(" static class " + className + " extends " + baseName + " {");
 
     // Constructor
@@ -100,6 +115,13 @@ public class GenerateAst {
       writer.println("    final " + field + ";");
     }
 
+    // Resolution data, mutable since it's set after the node is built
+    if (resolvedList != null) {
+      for (String field : resolvedList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
     writer.println("  }");
   }
   
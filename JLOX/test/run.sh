@@ -0,0 +1,83 @@
+#!/bin/bash
+# Runs every test here on every engine, and checks what it prints and exits with against the
+# comments in it:
+#
+#   print 1 + 2;  // expect: 3
+#   nil.field;    // expect runtime error: Only instances have properties.
+#   var = 3;      // [line 1] Error at '=': Expect variable name.
+#
+# A runtime error is expected to be reported at the line its comment is on. Each test runs again with
+# --stream, except the ones expecting compile errors: streaming runs the statements before the error
+# and doesn't get to report the ones after it. Then the server is sent requests no client would send
+cd "$(dirname "$0")/../.." || exit 1
+
+build=$(mktemp -d)
+server=
+trap 'rm -rf "$build"; [ -n "$server" ] && kill $server' EXIT
+# AstPrinter hasn't kept up with the AST, and nothing else needs it
+javac -encoding UTF-8 -d "$build" $(ls JLOX/Lox/*.java | grep -v AstPrinter) || exit 1
+
+failed=0
+for test in JLOX/test/*.lox; do
+  expected_out=$(sed -n 's|.*// expect: ||p' "$test")
+  expected_err=$(awk '
+    match($0, /\/\/ expect runtime error: /) { print substr($0, RSTART + RLENGTH); print "[line " NR "]" }
+    match($0, /\/\/ \[line [0-9]+\] /) { print substr($0, RSTART + 3) }
+  ' "$test")
+
+  expected_code=0
+  if grep -q '// \[line ' "$test"; then expected_code=65; fi
+  if grep -q '// expect runtime error: ' "$test"; then expected_code=70; fi
+
+  modes=("" --stream)
+  [ $expected_code = 65 ] && modes=("")
+
+  for mode in "${modes[@]}"; do
+    for engine in tree nodes vm jit; do
+      out=$(java -cp "$build" JLOX.Lox.Lox --engine=$engine $mode "$test" 2> "$build/err")
+      code=$?
+      err=$(cat "$build/err")
+
+      if [ "$out" != "$expected_out" ] || [ "$err" != "$expected_err" ] || [ $code != $expected_code ]; then
+        echo "FAIL $test --engine=$engine $mode"
+        diff <(echo "$expected_out") <(echo "$out") | sed 's/^/  out /'
+        diff <(echo "$expected_err") <(echo "$err") | sed 's/^/  err /'
+        [ $code != $expected_code ] && echo "  exit code $code, expected $expected_code"
+        failed=1
+      fi
+    done
+  done
+done
+
+# What the server replies to a request, in hex. It ends with the EXIT frame: 58 and the code as an int
+port=$((20000 + RANDOM % 20000))
+java -cp "$build" JLOX.Lox.Lox --max-source=1024 --serve=$port &
+server=$!
+request() {
+  exec 3<> /dev/tcp/127.0.0.1/$port || return
+  printf "$1" >&3
+  od -An -v -tx1 <&3 | tr -d ' \n'
+  exec 3<&-
+}
+for i in $(seq 50); do
+  (exec 3<> /dev/tcp/127.0.0.1/$port) 2> /dev/null && break
+  sleep 0.1
+done
+
+check_server() {
+  reply=$(request "$1" 2> /dev/null)
+  if [ "${reply: -10}" != "$2" ]; then
+    echo "FAIL server request $(printf %q "$1")"
+    echo "  reply $reply, expected it to end with $2"
+    failed=1
+  fi
+}
+check_server 'EVAL 9\nprint 1;\n' 5800000000
+check_server 'EVAL -1\n' 5800000040
+check_server 'EVAL 1025\nprint 1;\n' 5800000040
+check_server 'EVAL 2147483647\n' 5800000040
+check_server 'EVAL 4294967296\n' 5800000040
+check_server 'EVAL nine\n' 5800000040
+
+[ $failed = 0 ] && echo "All tests passed."
+exit $failed